@@ -0,0 +1,41 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot.commands;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.interpolation.InterpolatingDoubleTreeMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the distance lookup in MultiDistanceShot.execute, using the command's distance map.
+ *
+ * <p>The robot moves on every invocation so each lookup lands between different map entries. The
+ * alliance flip is skipped, since it reads the alliance from the driver station.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MultiDistanceShotBenchmark {
+  private static final Translation2d targetTranslation = new Translation2d(0.2, 5.5);
+
+  private final InterpolatingDoubleTreeMap distanceMap = MultiDistanceShot.createDistanceMap();
+  private double time = 0.0;
+
+  @Benchmark
+  public double interpolateSpeed() {
+    time += 0.02;
+    Pose2d pose = new Pose2d(4.0 + 3.0 * Math.sin(time), 5.5, new Rotation2d());
+    double distance = pose.getTranslation().getDistance(targetTranslation);
+    return distanceMap.get(distance);
+  }
+}
@@ -0,0 +1,55 @@
+// Copyright 2021-2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// version 3 as published by the Free Software Foundation or
+// available in the root directory of this project.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures converting chassis speeds to module states, which Drive.runVelocity does every loop.
+ *
+ * <p>The speeds change on every invocation so the kinematics cannot reuse its cached result for
+ * unchanged speeds. Constants are duplicated from DriveConstants, which cannot be loaded without
+ * the HAL.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class KinematicsBenchmark {
+  private static final Translation2d[] moduleTranslations = {
+    new Translation2d(0.286, 0.286),
+    new Translation2d(0.286, -0.286),
+    new Translation2d(-0.286, 0.286),
+    new Translation2d(-0.286, -0.286)
+  };
+
+  private final SwerveDriveKinematics kinematics = new SwerveDriveKinematics(moduleTranslations);
+  private double time = 0.0;
+
+  @Benchmark
+  public SwerveModuleState[] toSwerveModuleStates() {
+    time += 0.02;
+    ChassisSpeeds speeds = new ChassisSpeeds(2.0 * Math.cos(time), 2.0 * Math.sin(time), 1.0);
+    return kinematics.toSwerveModuleStates(speeds);
+  }
+}
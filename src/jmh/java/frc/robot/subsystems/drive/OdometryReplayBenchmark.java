@@ -0,0 +1,142 @@
+// Copyright 2021-2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// version 3 as published by the Free Software Foundation or
+// available in the root directory of this project.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the odometry replay in Drive.periodic for one 20 ms loop at 250 Hz.
+ *
+ * <p>Each invocation receives five samples per signal, with the drive, turn and gyro signals of
+ * every module sampled at slightly different times. The samples are aligned by the same {@link
+ * OdometryIntegrator} that Drive uses, and each aligned sample is added to the estimator.
+ * Rotations are taken from a precomputed table, so only the replay itself allocates. Constants are
+ * duplicated from DriveConstants, which cannot be loaded without the HAL.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OdometryReplayBenchmark {
+  private static final double frequency = 250.0;
+  private static final int samplesPerLoop = 5;
+  private static final double speedMetersPerSec = 2.0;
+  private static final double jitterSecs = 0.0005;
+  private static final int rotationTableSize = 1000;
+  private static final double[] stateStdDevs = {0.003, 0.003, 0.0002};
+  private static final Translation2d[] moduleTranslations = {
+    new Translation2d(0.286, 0.286),
+    new Translation2d(0.286, -0.286),
+    new Translation2d(-0.286, 0.286),
+    new Translation2d(-0.286, -0.286)
+  };
+
+  /** One module's inputs for a loop, in the layout of ModuleIOInputs. */
+  private static class ModuleInputs implements OdometryIntegrator.ModuleSamples {
+    private final double[] driveTimestamps = new double[samplesPerLoop];
+    private final double[] drivePositions = new double[samplesPerLoop];
+    private final double[] turnTimestamps = new double[samplesPerLoop];
+    private final Rotation2d[] turnPositions = new Rotation2d[samplesPerLoop];
+    private final int[] droppedSamples = new int[samplesPerLoop];
+
+    @Override
+    public double[] getOdometryTimestamps() {
+      return driveTimestamps;
+    }
+
+    @Override
+    public int[] getOdometryDroppedSamples() {
+      return droppedSamples;
+    }
+
+    @Override
+    public double getOdometryDistanceAt(double timestamp) {
+      return OdometryInterpolation.interpolate(driveTimestamps, drivePositions, timestamp);
+    }
+
+    @Override
+    public double getOdometryAngleAt(double timestamp) {
+      return OdometryInterpolation.interpolateAngle(turnTimestamps, turnPositions, timestamp);
+    }
+  }
+
+  private final Rotation2d[] rotationTable = new Rotation2d[rotationTableSize];
+
+  // Inputs for one loop, in the layout of ModuleIOInputs and GyroIOInputs
+  private final ModuleInputs[] modules = {
+    new ModuleInputs(), new ModuleInputs(), new ModuleInputs(), new ModuleInputs()
+  };
+  private final double[] yawTimestamps = new double[samplesPerLoop];
+  private final Rotation2d[] yawPositions = new Rotation2d[samplesPerLoop];
+
+  private SwervePoseEstimator estimator;
+  private OdometryIntegrator integrator;
+  private int sampleIndex;
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    for (int i = 0; i < rotationTableSize; i++) {
+      rotationTable[i] = new Rotation2d(Math.sin(2.0 * Math.PI * i / rotationTableSize));
+    }
+    estimator =
+        new SwervePoseEstimator(
+            moduleTranslations, stateStdDevs, (int) Math.ceil(frequency * 3.0));
+    integrator =
+        new OdometryIntegrator(
+            modules,
+            (timestamp, distances, angles, gyroYaw) ->
+                estimator.update(timestamp, gyroYaw, distances, angles));
+
+    // Fill the history, as it would be after driving for a while
+    sampleIndex = 0;
+    for (int i = 0; i < (int) (frequency * 1.5) / samplesPerLoop; i++) {
+      receiveLoop();
+      integrator.integrate(yawTimestamps, yawPositions, true);
+    }
+  }
+
+  @Benchmark
+  public Pose2d replayLoop() {
+    receiveLoop();
+    integrator.integrate(yawTimestamps, yawPositions, true);
+    return estimator.getEstimatedPosition();
+  }
+
+  /** Fills the inputs with the next loop's samples, driving in a slow arc. */
+  private void receiveLoop() {
+    for (int i = 0; i < samplesPerLoop; i++) {
+      double timestamp = sampleIndex / frequency;
+      Rotation2d rotation = rotationTable[sampleIndex % rotationTableSize];
+      for (int module = 0; module < 4; module++) {
+        modules[module].driveTimestamps[i] = timestamp + module * jitterSecs;
+        modules[module].drivePositions[i] = timestamp * speedMetersPerSec;
+        modules[module].turnTimestamps[i] = timestamp + (module + 1) * jitterSecs;
+        modules[module].turnPositions[i] = rotation;
+      }
+      yawTimestamps[i] = timestamp - jitterSecs;
+      yawPositions[i] = rotationTable[(sampleIndex / 4) % rotationTableSize];
+      sampleIndex++;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+// Copyright 2021-2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// version 3 as published by the Free Software Foundation or
+// available in the root directory of this project.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares WPILib's SwerveDrivePoseEstimator with {@link SwervePoseEstimator}.
+ *
+ * <p>Both estimators are filled with 1.5 seconds of samples at 250 Hz, the worst case for the
+ * history buffer. Each invocation then adds a vision measurement from 100 ms in the past followed
+ * by one new odometry sample, which is the per-sample cost when a camera reports every cycle.
+ * Constants are duplicated from DriveConstants, which cannot be loaded without the HAL.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PoseEstimatorBenchmark {
+  private static final double frequency = 250.0;
+  private static final double visionLatencySecs = 0.1;
+  private static final double speedMetersPerSec = 2.0;
+  private static final double omegaRadPerSec = 1.0;
+  private static final double[] stateStdDevs = {0.003, 0.003, 0.0002};
+  private static final double xyStdDev = 0.01;
+  private static final double thetaStdDev = 0.01;
+  private static final Translation2d[] moduleTranslations = {
+    new Translation2d(0.286, 0.286),
+    new Translation2d(0.286, -0.286),
+    new Translation2d(-0.286, 0.286),
+    new Translation2d(-0.286, -0.286)
+  };
+
+  private final SwerveDriveKinematics kinematics = new SwerveDriveKinematics(moduleTranslations);
+  private final SwerveModulePosition[] modulePositions = new SwerveModulePosition[4];
+  private final double[] distances = new double[4];
+  private final double[] angles = new double[4];
+
+  private SwerveDrivePoseEstimator wpilibEstimator;
+  private SwervePoseEstimator customEstimator;
+  private double timestamp;
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    for (int i = 0; i < 4; i++) {
+      modulePositions[i] = new SwerveModulePosition();
+      distances[i] = 0.0;
+      angles[i] = 0.0;
+    }
+    wpilibEstimator =
+        new SwerveDrivePoseEstimator(
+            kinematics,
+            new Rotation2d(),
+            modulePositions,
+            new Pose2d(),
+            VecBuilder.fill(stateStdDevs[0], stateStdDevs[1], stateStdDevs[2]),
+            VecBuilder.fill(xyStdDev, xyStdDev, thetaStdDev));
+    customEstimator =
+        new SwervePoseEstimator(
+            moduleTranslations, stateStdDevs, (int) Math.ceil(frequency * 3.0));
+
+    timestamp = 0.0;
+    for (int i = 0; i < (int) (frequency * 1.5); i++) {
+      step();
+      updateModulePositions();
+      wpilibEstimator.updateWithTime(timestamp, new Rotation2d(gyroAngle()), modulePositions);
+      customEstimator.update(timestamp, gyroAngle(), distances, angles);
+    }
+  }
+
+  @Benchmark
+  public Pose2d wpilib() {
+    step();
+    updateModulePositions();
+    wpilibEstimator.addVisionMeasurement(
+        visionPose(),
+        timestamp - visionLatencySecs,
+        VecBuilder.fill(xyStdDev, xyStdDev, thetaStdDev));
+    return wpilibEstimator.updateWithTime(timestamp, new Rotation2d(gyroAngle()), modulePositions);
+  }
+
+  @Benchmark
+  public Pose2d custom() {
+    step();
+    Pose2d vision = visionPose();
+    customEstimator.addVisionMeasurement(
+        timestamp - visionLatencySecs,
+        vision.getX(),
+        vision.getY(),
+        vision.getRotation().getRadians(),
+        xyStdDev,
+        xyStdDev,
+        thetaStdDev);
+    customEstimator.update(timestamp, gyroAngle(), distances, angles);
+    return customEstimator.getEstimatedPosition();
+  }
+
+  /** Advances the simulated robot by one sample, driving in a slow arc. */
+  private void step() {
+    timestamp += 1.0 / frequency;
+    for (int i = 0; i < 4; i++) {
+      distances[i] += speedMetersPerSec / frequency;
+      angles[i] = Math.sin(timestamp);
+    }
+  }
+
+  /** Converts the current sample to WPILib module positions. */
+  private void updateModulePositions() {
+    for (int i = 0; i < 4; i++) {
+      modulePositions[i] = new SwerveModulePosition(distances[i], new Rotation2d(angles[i]));
+    }
+  }
+
+  private double gyroAngle() {
+    return timestamp * omegaRadPerSec;
+  }
+
+  private Pose2d visionPose() {
+    return new Pose2d(timestamp, 0.5, new Rotation2d(gyroAngle()));
+  }
+}
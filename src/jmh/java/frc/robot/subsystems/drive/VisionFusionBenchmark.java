@@ -0,0 +1,124 @@
+// Copyright 2021-2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// version 3 as published by the Free Software Foundation or
+// available in the root directory of this project.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares applying one loop's vision measurements one at a time in arrival order against applying
+ * them as a time-sorted batch.
+ *
+ * <p>Each invocation simulates one 20 ms loop at 250 Hz: five odometry samples followed by one
+ * measurement per camera, with cameras reporting in a fixed order but with different latencies.
+ * Applying measurements one at a time reads the estimate after each, like the previous
+ * Drive.addVisionData, so every measurement replays odometry up to the present. The batch reads the
+ * estimate once, so odometry is replayed a single time from the oldest measurement. Constants are
+ * duplicated from DriveConstants, which cannot be loaded without the HAL.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VisionFusionBenchmark {
+  private static final double frequency = 250.0;
+  private static final int samplesPerLoop = 5;
+  private static final double[] cameraLatencySecs = {0.03, 0.12, 0.06, 0.09, 0.02, 0.15};
+  private static final double[] stateStdDevs = {0.003, 0.003, 0.0002};
+  private static final double xyStdDev = 0.01;
+  private static final double thetaStdDev = 0.01;
+  private static final Translation2d[] moduleTranslations = {
+    new Translation2d(0.286, 0.286),
+    new Translation2d(0.286, -0.286),
+    new Translation2d(-0.286, 0.286),
+    new Translation2d(-0.286, -0.286)
+  };
+
+  @Param({"1", "3", "6"})
+  public int cameras;
+
+  private final double[] distances = new double[4];
+  private final double[] angles = new double[4];
+  private double[] visionTimestamps;
+  private SwervePoseEstimator estimator;
+  private double timestamp;
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    Arrays.fill(distances, 0.0);
+    Arrays.fill(angles, 0.0);
+    visionTimestamps = new double[cameras];
+    estimator =
+        new SwervePoseEstimator(
+            moduleTranslations, stateStdDevs, (int) Math.ceil(frequency * 3.0));
+
+    timestamp = 0.0;
+    for (int i = 0; i < (int) (frequency * 1.5); i++) {
+      step();
+    }
+  }
+
+  @Benchmark
+  public Pose2d arrivalOrder() {
+    Pose2d pose = null;
+    for (int i = 0; i < samplesPerLoop; i++) {
+      step();
+    }
+    for (int i = 0; i < cameras; i++) {
+      addVisionMeasurement(timestamp - cameraLatencySecs[i]);
+      pose = estimator.getEstimatedPosition();
+    }
+    return pose;
+  }
+
+  @Benchmark
+  public Pose2d sortedBatch() {
+    for (int i = 0; i < samplesPerLoop; i++) {
+      step();
+    }
+    for (int i = 0; i < cameras; i++) {
+      visionTimestamps[i] = timestamp - cameraLatencySecs[i];
+    }
+    Arrays.sort(visionTimestamps);
+    for (double visionTimestamp : visionTimestamps) {
+      addVisionMeasurement(visionTimestamp);
+    }
+    return estimator.getEstimatedPosition();
+  }
+
+  /** Adds one odometry sample, driving in a slow arc. */
+  private void step() {
+    timestamp += 1.0 / frequency;
+    for (int i = 0; i < 4; i++) {
+      distances[i] += 2.0 / frequency;
+      angles[i] = Math.sin(timestamp);
+    }
+    estimator.update(timestamp, timestamp, distances, angles);
+  }
+
+  private void addVisionMeasurement(double visionTimestamp) {
+    estimator.addVisionMeasurement(
+        visionTimestamp, visionTimestamp, 0.5, visionTimestamp, xyStdDev, xyStdDev, thetaStdDev);
+  }
+}
@@ -0,0 +1,81 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.subsystems.vision;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import frc.robot.subsystems.vision.AprilTagVisionIO.AprilTagVisionIOInputs;
+import frc.robot.util.LimelightHelpers.PoseEstimate;
+import frc.robot.util.LimelightHelpers.RawFiducial;
+import frc.robot.util.VisionHelpers.TimestampedVisionUpdate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.littletonrobotics.junction.LogTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the per-loop vision work in AprilTagVision.periodic: logging each camera's inputs and
+ * turning the pose estimates into vision updates.
+ *
+ * <p>Every camera reports one estimate per loop. The standard deviation coefficients are duplicated
+ * from DriveConstants, which cannot be loaded without the HAL.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AprilTagVisionBenchmark {
+  private static final double xyStdDevCoefficient = 0.01;
+  private static final double thetaStdDevCoefficient = 0.01;
+
+  @Param({"1", "4"})
+  public int cameras;
+
+  private AprilTagVisionIOInputs[] inputs;
+  private LogTable table;
+
+  @Setup
+  public void setup() {
+    inputs = new AprilTagVisionIOInputs[cameras];
+    for (int i = 0; i < cameras; i++) {
+      inputs[i] = new AprilTagVisionIOInputs();
+      inputs[i].poseEstimates.add(
+          new PoseEstimate(
+              new Pose2d(4.0 + i, 3.0, Rotation2d.fromDegrees(30.0 * i)),
+              12.3,
+              28.0,
+              2,
+              1.2,
+              3.4,
+              0.6,
+              new RawFiducial[] {},
+              i % 2 == 0));
+    }
+    table = new LogTable(0).getSubtable("AprilTagVision/Inst");
+  }
+
+  @Benchmark
+  public List<TimestampedVisionUpdate> processPoseEstimates() {
+    return AprilTagVision.processPoseEstimates(
+        inputs, xyStdDevCoefficient, thetaStdDevCoefficient);
+  }
+
+  @Benchmark
+  public LogTable toLog() {
+    for (AprilTagVisionIOInputs input : inputs) {
+      input.toLog(table);
+    }
+    return table;
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright (c) 2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import frc.robot.util.LimelightHelpers.LimelightResults;
+import frc.robot.util.LimelightHelpers.PoseEstimate;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures parsing Limelight results, both from the botpose array published to NetworkTables and
+ * from the JSON results dump.
+ *
+ * <p>The data is generated in the formats the Limelight publishes, with one entry per visible tag.
+ * Only the parsing is measured, since reading NetworkTables requires the native libraries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LimelightHelpersBenchmark {
+  private static final int valuesPerFiducial = 7;
+
+  @Param({"1", "4", "8"})
+  public int tags;
+
+  private double[] poseArray;
+  private String json;
+
+  @Setup
+  public void setup() {
+    // Pose, latency, tag count, span, distance, area, then the raw fiducials
+    poseArray = new double[11 + valuesPerFiducial * tags];
+    double[] header = {4.2, 3.1, 0.0, 0.0, 0.0, 37.5, 28.0, tags, 1.2, 3.4, 0.6};
+    System.arraycopy(header, 0, poseArray, 0, header.length);
+    for (int i = 0; i < tags; i++) {
+      int base = 11 + i * valuesPerFiducial;
+      double[] fiducial = {i + 1, 3.2 * i, -1.4 * i, 0.6, 3.1 + i, 3.4 + i, 0.05};
+      System.arraycopy(fiducial, 0, poseArray, base, valuesPerFiducial);
+    }
+
+    StringBuilder builder = new StringBuilder();
+    builder.append("{\"pID\":0,\"tl\":11.2,\"cl\":16.8,\"ts\":123456.7,\"ts_rio\":12.345,\"v\":1,");
+    builder.append("\"botpose\":[1.2,-0.9,0,0,0,37.5],\"botpose_wpired\":[9.4,3.2,0,0,0,-142.5],");
+    builder.append("\"botpose_wpiblue\":[7.1,4.9,0,0,0,37.5],\"botpose_tagcount\":");
+    builder.append(tags).append(",\"botpose_span\":1.2,\"botpose_avgdist\":3.4,");
+    builder.append("\"botpose_avgarea\":0.6,\"t6c_rs\":[0.3,0,0.2,0,15,0],\"Fiducial\":[");
+    for (int i = 0; i < tags; i++) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      builder.append("{\"fID\":").append(i + 1).append(",\"fam\":\"36H11C\",");
+      builder.append("\"t6c_ts\":[0.5,0.1,3.1,2.1,-15.3,0.4],\"t6r_fs\":[7.1,4.9,0,0,0,37.5],");
+      builder.append("\"t6r_ts\":[0.4,0.2,3.3,1.9,-14.8,0.3],\"t6t_cs\":[-0.4,0.1,3.1,-2,15,0],");
+      builder.append("\"t6t_rs\":[-0.3,0.2,3.3,-2,15,0],\"ta\":0.6,\"tx\":-3.2,\"txp\":280.1,");
+      builder.append("\"ty\":1.4,\"typ\":230.4,\"ts\":0}");
+    }
+    builder.append("],\"Retro\":[],\"Classifier\":[],\"Detector\":[],\"Barcode\":[]}");
+    json = builder.toString();
+  }
+
+  @Benchmark
+  public PoseEstimate parsePoseArray() {
+    return LimelightHelpers.toPoseEstimate(poseArray, 123_456_789L, false);
+  }
+
+  @Benchmark
+  public LimelightResults parseJson() {
+    return LimelightHelpers.parseResults(json);
+  }
+}
@@ -27,10 +27,21 @@ import frc.robot.util.Alert;
 public final class Constants {
   public static final int loopPeriodMs = 20;
   private static RobotType robotType = RobotType.SIMBOT;
+  // Overrides the robot type in simulation, e.g. "COMPBOT" to replay logs from the command line
+  private static final String robotTypeOverride = System.getenv("ROBOT_TYPE");
+  // Replays this log instead of simulating, so logs recorded in simulation can be replayed too
+  private static final boolean replayOverride = System.getenv("AKIT_LOG_PATH") != null;
   public static final boolean tuningMode = true;
   public static final boolean characterizationMode = false;
+  // Time allowed for hardware to be configured at startup before it is replaced by disabled IO
+  public static final double deviceInitDeadlineSecs = 5.0;
+  // Write real robot logs from a bounded queue on a background thread instead of WPILOGWriter
+  public static final boolean asyncLogWriter = true;
 
   public static RobotType getRobot() {
+    if (robotTypeOverride != null && !RobotBase.isReal()) {
+      return RobotType.valueOf(robotTypeOverride);
+    }
     if (RobotBase.isReal() && robotType == RobotType.SIMBOT) {
       new Alert("Invalid Robot Selected, using COMPBOT as default", Alert.AlertType.ERROR)
           .set(true);
@@ -40,6 +51,9 @@ public final class Constants {
   }
 
   public static Mode getMode() {
+    if (replayOverride && !RobotBase.isReal()) {
+      return Mode.REPLAY;
+    }
     return switch (getRobot()) {
       case COMPBOT -> RobotBase.isReal() ? Mode.REAL : Mode.REPLAY;
       case SIMBOT -> Mode.SIM;
@@ -14,6 +14,7 @@
 package frc.robot;
 
 import edu.wpi.first.wpilibj.RobotBase;
+import frc.robot.util.BatchReplay;
 
 /**
  * Do NOT add any static variables to this class, or any initialization at all. Unless you know what
@@ -29,6 +30,10 @@ public final class Main {
    * <p>If you change your main robot class, change the parameter type.
    */
   public static void main(String... args) {
+    if (BatchReplay.isRequested()) {
+      BatchReplay.run();
+      return;
+    }
     RobotBase.startRobot(Robot::new);
   }
 }
@@ -16,9 +16,18 @@ package frc.robot;
 import com.pathplanner.lib.pathfinding.Pathfinding;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import frc.robot.util.AsyncWPILOGWriter;
+import frc.robot.util.DeviceConfigExecutor;
+import frc.robot.util.FilteredDataReceiver;
+import frc.robot.util.HeadlessSimRunner;
 import frc.robot.util.LocalADStarAK;
+import frc.robot.util.LoopProfiler;
+import frc.robot.util.StatusSignalRegistry;
+import frc.robot.util.StatusSignalRegistry.Phase;
+import frc.robot.util.TalonFXOutput;
 import org.littletonrobotics.junction.LogFileUtil;
 import org.littletonrobotics.junction.LoggedRobot;
+import org.littletonrobotics.junction.LogDataReceiver;
 import org.littletonrobotics.junction.Logger;
 import org.littletonrobotics.junction.networktables.NT4Publisher;
 import org.littletonrobotics.junction.wpilog.WPILOGReader;
@@ -33,6 +42,13 @@ import org.littletonrobotics.junction.wpilog.WPILOGWriter;
 public class Robot extends LoggedRobot {
   private Command autonomousCommand;
   private RobotContainer robotContainer;
+  private AsyncWPILOGWriter asyncLogWriter = null;
+  private final LoopProfiler.Section signalRefreshSection =
+      LoopProfiler.getInstance().section("SignalRefresh");
+  private final LoopProfiler.Section schedulerSection =
+      LoopProfiler.getInstance().section("Scheduler");
+  private final LoopProfiler.Section loggingSection =
+      LoopProfiler.getInstance().section("Logging");
 
   /**
    * This function is run when the robot is first started up and should be used for any
@@ -47,6 +63,7 @@ public class Robot extends LoggedRobot {
     Logger.recordMetadata("GitSHA", BuildConstants.GIT_SHA);
     Logger.recordMetadata("GitDate", BuildConstants.GIT_DATE);
     Logger.recordMetadata("GitBranch", BuildConstants.GIT_BRANCH);
+    Logger.recordMetadata("RobotType", Constants.getRobot().toString());
     switch (BuildConstants.DIRTY) {
       case 0:
         Logger.recordMetadata("GitDirty", "All changes committed");
@@ -63,13 +80,26 @@ public class Robot extends LoggedRobot {
     switch (Constants.getMode()) {
       case REAL:
         // Running on a real robot, log to a USB stick ("/U/logs")
-        Logger.addDataReceiver(new WPILOGWriter());
-        Logger.addDataReceiver(new NT4Publisher());
+        if (Constants.asyncLogWriter) {
+          asyncLogWriter =
+              new AsyncWPILOGWriter("/U/logs", 250, AsyncWPILOGWriter.OverflowPolicy.DROP_NEWEST);
+          Logger.addDataReceiver(asyncLogWriter);
+        } else {
+          Logger.addDataReceiver(new WPILOGWriter());
+        }
+        Logger.addDataReceiver(createNTPublisher());
         break;
 
       case SIM:
         // Running a physics simulator, log to NT
-        Logger.addDataReceiver(new NT4Publisher());
+        Logger.addDataReceiver(createNTPublisher());
+        if (HeadlessSimRunner.isRequested()) {
+          // Step through a scripted scenario as fast as possible
+          if (HeadlessSimRunner.getLogPath() != null) {
+            Logger.addDataReceiver(new WPILOGWriter(HeadlessSimRunner.getLogPath()));
+          }
+          HeadlessSimRunner.start();
+        }
         break;
 
       case REPLAY:
@@ -90,25 +120,61 @@ public class Robot extends LoggedRobot {
     // Instantiate our RobotContainer. This will perform all our button bindings,
     // and put our autonomous chooser on the dashboard.
     robotContainer = new RobotContainer();
+    LoopProfiler.getInstance().bindCommands();
 
     // FollowPathCommand.warmupCommand().schedule();
     // PathfindingCommand.warmupCommand().schedule();
   }
 
+  /**
+   * Creates the NetworkTables publisher for dashboards. The log file keeps every key at the full
+   * rate, so NT only gets the pose and trajectory setpoint at the full rate and everything else at
+   * 10 Hz or less, without the pathfinder inputs and raw module inputs.
+   */
+  private static LogDataReceiver createNTPublisher() {
+    return new FilteredDataReceiver(new NT4Publisher())
+        .setDefaultRate(10.0)
+        .setRate("RealOutputs/Odometry/PoseEstimation", 50.0)
+        .setRate("RealOutputs/Odometry/Trajectory", 2.0)
+        .setRate("RealOutputs/Odometry/TrajectorySetpoint", 50.0)
+        .deny("LocalADStarAK")
+        .deny("Drive/Module");
+  }
+
   /** This function is called periodically during all modes. */
   @Override
   public void robotPeriodic() {
+    // Refresh every Phoenix status signal at once, before the subsystems read their inputs
+    long refreshStart = signalRefreshSection.start();
+    StatusSignalRegistry.getInstance().refreshAll();
+    signalRefreshSection.end(refreshStart);
+
     // Runs the Scheduler. This is responsible for polling buttons, adding
     // newly-scheduled commands, running already-scheduled commands, removing
     // finished or interrupted commands, and running subsystem periodic() methods.
     // This must be called from the robot's periodic block in order for anything in
     // the Command-based framework to work.
+    long schedulerStart = schedulerSection.start();
     CommandScheduler.getInstance().run();
+    schedulerSection.end(schedulerStart);
+
+    // Log CAN requests sent by the subsystems this cycle
+    long loggingStart = loggingSection.start();
+    TalonFXOutput.logAll();
+    DeviceConfigExecutor.getInstance().periodic();
+    StatusSignalRegistry.getInstance().periodic();
+    if (asyncLogWriter != null) {
+      asyncLogWriter.periodic();
+    }
+    loggingSection.end(loggingStart);
+    LoopProfiler.getInstance().periodic();
   }
 
   /** This function is called once when the robot is disabled. */
   @Override
-  public void disabledInit() {}
+  public void disabledInit() {
+    StatusSignalRegistry.getInstance().setPhase(Phase.DISABLED);
+  }
 
   /** This function is called periodically when disabled. */
   @Override
@@ -117,6 +183,8 @@ public class Robot extends LoggedRobot {
   /** This autonomous runs the autonomous command selected by your {@link RobotContainer} class. */
   @Override
   public void autonomousInit() {
+    StatusSignalRegistry.getInstance()
+        .setPhase(Constants.characterizationMode ? Phase.SYSID : Phase.AUTO);
     autonomousCommand = robotContainer.getAutonomousCommand();
 
     // schedule the autonomous command (example)
@@ -132,6 +200,8 @@ public class Robot extends LoggedRobot {
   /** This function is called once when teleop is enabled. */
   @Override
   public void teleopInit() {
+    StatusSignalRegistry.getInstance().setPhase(Phase.TELEOP);
+
     // This makes sure that the autonomous stops running when
     // teleop starts running. If you want the autonomous to
     // continue until interrupted by another command, remove
@@ -148,6 +218,8 @@ public class Robot extends LoggedRobot {
   /** This function is called once when test mode is enabled. */
   @Override
   public void testInit() {
+    StatusSignalRegistry.getInstance().setPhase(Phase.SYSID);
+
     // Cancels all running commands at the start of test mode.
     CommandScheduler.getInstance().cancelAll();
   }
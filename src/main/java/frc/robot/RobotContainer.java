@@ -33,6 +33,7 @@ import frc.robot.commands.DriveToPoint;
 import frc.robot.commands.MultiDistanceShot;
 import frc.robot.commands.PathFinderAndFollow;
 import frc.robot.subsystems.drive.Drive;
+import frc.robot.subsystems.drive.DriveConstants.ModuleConfig;
 import frc.robot.subsystems.drive.DriveController;
 import frc.robot.subsystems.drive.GyroIO;
 import frc.robot.subsystems.drive.GyroIOPigeon2;
@@ -48,6 +49,11 @@ import frc.robot.subsystems.vision.AprilTagVisionIO;
 import frc.robot.subsystems.vision.AprilTagVisionIOLimelight;
 import frc.robot.subsystems.vision.AprilTagVisionIOPhotonVisionSIM;
 import frc.robot.util.FieldConstants;
+import frc.robot.util.ParallelInitializer;
+import frc.robot.util.ParallelInitializer.Device;
+import frc.robot.util.PhoenixConfigs;
+import java.util.ArrayList;
+import java.util.List;
 import org.littletonrobotics.junction.networktables.LoggedDashboardChooser;
 
 /**
@@ -76,21 +82,36 @@ public class RobotContainer {
     switch (Constants.getMode()) {
       case REAL:
         // Real robot, instantiate hardware IO implementations
+        // Devices are independent, so configure them concurrently to shorten boot time
+        var initializer = new ParallelInitializer(Constants.deviceInitDeadlineSecs);
+        Device<GyroIO> gyroIO = initializer.submit("Gyro", GyroIOPigeon2::new, new GyroIO() {});
+        List<Device<ModuleIO>> moduleIOs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+          ModuleConfig config = moduleConfigs[i];
+          moduleIOs.add(
+              initializer.submit(
+                  "Module" + i, () -> new ModuleIOTalonFX(config), new ModuleIO() {}));
+        }
+        Device<FlywheelIO> flywheelIO =
+            initializer.submit("Flywheel", FlywheelIOTalonFX::new, new FlywheelIO() {});
+        initializer.await();
+        PhoenixConfigs.logCounts();
+
         drive =
             new Drive(
-                new GyroIOPigeon2(true),
-                new ModuleIOTalonFX(moduleConfigs[0]),
-                new ModuleIOTalonFX(moduleConfigs[1]),
-                new ModuleIOTalonFX(moduleConfigs[2]),
-                new ModuleIOTalonFX(moduleConfigs[3]));
+                gyroIO.get(),
+                moduleIOs.get(0).get(),
+                moduleIOs.get(1).get(),
+                moduleIOs.get(2).get(),
+                moduleIOs.get(3).get());
         // flywheel = new Flywheel(new FlywheelIOSparkMax());
         // drive = new Drive(
-        // new GyroIOPigeon2(true),
+        // new GyroIOPigeon2(),
         // new ModuleIOTalonFX(0),
         // new ModuleIOTalonFX(1),
         // new ModuleIOTalonFX(2),
         // new ModuleIOTalonFX(3));
-        flywheel = new Flywheel(new FlywheelIOTalonFX());
+        flywheel = new Flywheel(flywheelIO.get());
         aprilTagVision =
             new AprilTagVision(
                 new AprilTagVisionIOLimelight(
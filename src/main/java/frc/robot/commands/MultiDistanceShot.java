@@ -17,7 +17,7 @@ import org.littletonrobotics.junction.AutoLogOutput;
 public class MultiDistanceShot extends Command {
   Supplier<Pose2d> poseSupplier;
   Flywheel flywheel;
-  InterpolatingDoubleTreeMap distanceMap = new InterpolatingDoubleTreeMap();
+  InterpolatingDoubleTreeMap distanceMap = createDistanceMap();
 
   double distance;
   double speed;
@@ -36,6 +36,15 @@ public class MultiDistanceShot extends Command {
     this.poseSupplier = poseSupplier;
     this.flywheel = flywheel;
     this.targetTranslation = targetTranslation;
+  }
+
+  /**
+   * Creates the map from distance to the target to flywheel speed.
+   *
+   * @return The populated distance map.
+   */
+  static InterpolatingDoubleTreeMap createDistanceMap() {
+    InterpolatingDoubleTreeMap distanceMap = new InterpolatingDoubleTreeMap();
 
     // Populate the distance map with distance-speed pairs
     distanceMap.put(1.0, 10.0);
@@ -44,6 +53,7 @@ public class MultiDistanceShot extends Command {
     distanceMap.put(4.9, 27.8);
     distanceMap.put(6.2, 33.6);
     distanceMap.put(7.5, 39.4);
+    return distanceMap;
   }
 
   @Override
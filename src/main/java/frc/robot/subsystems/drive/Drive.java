@@ -22,14 +22,10 @@ import com.pathplanner.lib.util.PIDConstants;
 import com.pathplanner.lib.util.PathPlannerLogging;
 import com.pathplanner.lib.util.ReplanningConfig;
 import edu.wpi.first.math.Matrix;
-import edu.wpi.first.math.VecBuilder;
-import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
 import edu.wpi.first.math.geometry.Pose2d;
 import edu.wpi.first.math.geometry.Rotation2d;
-import edu.wpi.first.math.geometry.Twist2d;
 import edu.wpi.first.math.kinematics.ChassisSpeeds;
 import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
-import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.math.kinematics.SwerveModuleState;
 import edu.wpi.first.math.numbers.N1;
 import edu.wpi.first.math.numbers.N3;
@@ -39,42 +35,43 @@ import edu.wpi.first.wpilibj.DriverStation.Alliance;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import edu.wpi.first.wpilibj2.command.sysid.SysIdRoutine;
+import frc.robot.Constants;
+import frc.robot.Constants.Mode;
+import frc.robot.subsystems.drive.PoseTracker.PoseSnapshot;
+import frc.robot.util.Alert;
+import frc.robot.util.Alert.AlertType;
+import frc.robot.util.LoopProfiler;
 import frc.robot.util.VisionHelpers.TimestampedVisionUpdate;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Optional;
 import org.littletonrobotics.junction.AutoLogOutput;
 import org.littletonrobotics.junction.Logger;
 
 public class Drive extends SubsystemBase {
-  static final Lock odometryLock = new ReentrantLock();
   private final GyroIO gyroIO;
   private final GyroIOInputsAutoLogged gyroInputs = new GyroIOInputsAutoLogged();
   private final Module[] modules = new Module[4]; // FL, FR, BL, BR
+  private final Alert[] missingModuleAlerts = new Alert[4];
   private final SysIdRoutine sysId;
+  private final LoopProfiler.Section periodicSection =
+      LoopProfiler.getInstance().section("Drive/Periodic");
+  private final LoopProfiler.Section processInputsSection =
+      LoopProfiler.getInstance().section("Drive/ProcessInputs");
 
   private SwerveDriveKinematics kinematics = new SwerveDriveKinematics(moduleTranslations);
-  private Rotation2d rawGyroRotation = new Rotation2d();
   private double yawVelocityRadPerSec = 0.0;
-  private SwerveModulePosition[] lastModulePositions = // For delta tracking
-      new SwerveModulePosition[] {
-        new SwerveModulePosition(),
-        new SwerveModulePosition(),
-        new SwerveModulePosition(),
-        new SwerveModulePosition()
-      };
-  private SwerveDrivePoseEstimator poseEstimator =
-      new SwerveDrivePoseEstimator(
-          kinematics,
-          rawGyroRotation,
-          lastModulePositions,
-          new Pose2d(),
-          stateStdDevs,
-          new Matrix<>(
-              VecBuilder.fill(xyStdDevCoefficient, xyStdDevCoefficient, thetaStdDevCoefficient)));
-
-  private SwerveDrivePoseEstimator odometryDrive =
-      new SwerveDrivePoseEstimator(kinematics, rawGyroRotation, lastModulePositions, new Pose2d());
+
+  // Pose estimation runs on the odometry thread when enabled, which is not supported in replay
+  private final boolean threadedOdometry =
+      threadedPoseEstimation && Constants.getMode() == Mode.REAL;
+  private final PoseTracker poseTracker = new PoseTracker(threadedOdometry);
+  private volatile boolean gyroConnected = false;
+  private final double[] latestDistances = new double[4]; // Only used by odometry thread
+  private final double[] latestAngles = new double[4];
+  private final double[] latestYawSample = new double[2];
+  // Only used by the main loop
+  private final OdometryIntegrator odometryIntegrator =
+      new OdometryIntegrator(modules, poseTracker::addSample);
 
   public Drive(
       GyroIO gyroIO,
@@ -87,10 +84,20 @@ public class Drive extends SubsystemBase {
     modules[1] = new Module(frModuleIO, 1);
     modules[2] = new Module(blModuleIO, 2);
     modules[3] = new Module(brModuleIO, 3);
+    for (int i = 0; i < 4; i++) {
+      missingModuleAlerts[i] =
+          new Alert(
+              "Drive module " + i + " is not sending odometry, holding its last position",
+              AlertType.WARNING);
+    }
 
-    // Start threads (no-op for each if no signals have been created)
-    PhoenixOdometryThread.getInstance().start();
-    SparkMaxOdometryThread.getInstance().start();
+    // Integrate samples as they arrive on the scheduler sampling the modules
+    if (threadedOdometry) {
+      SignalHub.getInstance().addSampleListener(this::integrateLatestSample);
+    }
+
+    // Start sampling (no-op for each bus without signals)
+    SignalHub.getInstance().start();
 
     // Configure AutoBuilder for PathPlanner
     AutoBuilder.configureHolonomic(
@@ -137,13 +144,19 @@ public class Drive extends SubsystemBase {
 
   @Override
   public void periodic() {
-    odometryLock.lock(); // Prevents odometry updates while reading data
+    long periodicStart = periodicSection.start();
+
+    // Latch the samples published so far, so every module and the gyro read the same set
+    long readStart = System.nanoTime();
+    OdometryFence.latchAll();
     gyroIO.updateInputs(gyroInputs);
     for (var module : modules) {
       module.updateInputs();
     }
-    odometryLock.unlock();
+    Logger.recordOutput("Odometry/Handoff/ReadMs", (System.nanoTime() - readStart) / 1e6);
+    long inputsStart = processInputsSection.start();
     Logger.processInputs("Drive/Gyro", gyroInputs);
+    processInputsSection.end(inputsStart);
     for (var module : modules) {
       module.periodic();
     }
@@ -160,39 +173,55 @@ public class Drive extends SubsystemBase {
       Logger.recordOutput("SwerveStates/SetpointsOptimized", new SwerveModuleState[] {});
     }
 
-    // Update odometry
-    double[] sampleTimestamps =
-        modules[0].getOdometryTimestamps(); // All signals are sampled together
-    int sampleCount = sampleTimestamps.length;
-    for (int i = 0; i < sampleCount; i++) {
-      // Read wheel positions and deltas from each module
-      SwerveModulePosition[] modulePositions = new SwerveModulePosition[4];
-      SwerveModulePosition[] moduleDeltas = new SwerveModulePosition[4];
-      for (int moduleIndex = 0; moduleIndex < 4; moduleIndex++) {
-        modulePositions[moduleIndex] = modules[moduleIndex].getOdometryPositions()[i];
-        moduleDeltas[moduleIndex] =
-            new SwerveModulePosition(
-                modulePositions[moduleIndex].distanceMeters
-                    - lastModulePositions[moduleIndex].distanceMeters,
-                modulePositions[moduleIndex].angle);
-        lastModulePositions[moduleIndex] = modulePositions[moduleIndex];
-      }
+    // Update odometry, unless samples are already integrated on the odometry thread
+    gyroConnected = gyroInputs.connected;
+    if (gyroInputs.connected) {
+      yawVelocityRadPerSec = gyroInputs.yawVelocityRadPerSec;
+    }
+    for (int i = 0; i < 4; i++) {
+      missingModuleAlerts[i].set(modules[i].getOdometryTimestamps().length == 0);
+    }
+    if (!threadedOdometry) {
+      updateOdometry();
+    }
+    periodicSection.end(periodicStart);
+  }
 
-      // Update gyro angle
-      if (gyroInputs.connected) {
-        // Use the real gyro angle
-        rawGyroRotation = gyroInputs.odometryYawPositions[i];
-        yawVelocityRadPerSec = gyroInputs.yawVelocityRadPerSec;
-      } else {
-        // Use the angle delta from the kinematics and module deltas
-        Twist2d twist = kinematics.toTwist2d(moduleDeltas);
-        rawGyroRotation = rawGyroRotation.plus(new Rotation2d(twist.dtheta));
-      }
+  /** Integrates the samples received this cycle. */
+  private void updateOdometry() {
+    int droppedCount =
+        odometryIntegrator.integrate(
+            gyroInputs.odometryYawTimestamps,
+            gyroInputs.odometryYawPositions,
+            gyroInputs.connected);
+    if (droppedCount >= 0) {
+      Logger.recordOutput("Odometry/DroppedSamples", droppedCount);
+    }
+  }
 
-      // Apply update
-      poseEstimator.updateWithTime(sampleTimestamps[i], rawGyroRotation, modulePositions);
-      odometryDrive.updateWithTime(sampleTimestamps[i], rawGyroRotation, modulePositions);
+  /**
+   * Integrates the newest sample from each module and the gyro. Runs on the odometry thread when
+   * threaded pose estimation is enabled. A module without a sample holds its last position.
+   */
+  private void integrateLatestSample() {
+    double timestamp = Double.NaN;
+    for (int i = 0; i < 4; i++) {
+      if (modules[i].readLatestOdometry()) {
+        latestDistances[i] = modules[i].getLatestOdometryDistance();
+        latestAngles[i] = modules[i].getLatestOdometryAngle();
+        if (Double.isNaN(timestamp)) {
+          timestamp = modules[i].getLatestOdometryTimestamp();
+        }
+      }
+    }
+    if (Double.isNaN(timestamp)) {
+      return; // No data yet
     }
+    double gyroYaw = Double.NaN;
+    if (gyroConnected && gyroIO.readLatestYaw(latestYawSample)) {
+      gyroYaw = latestYawSample[1];
+    }
+    poseTracker.addSample(timestamp, latestDistances, latestAngles, gyroYaw);
   }
 
   /**
@@ -265,25 +294,59 @@ public class Drive extends SubsystemBase {
     return states;
   }
 
-  /** Returns the module positions (turn angles and drive positions) for all of the modules. */
-  private SwerveModulePosition[] getModulePositions() {
-    SwerveModulePosition[] states = new SwerveModulePosition[4];
-    for (int i = 0; i < 4; i++) {
-      states[i] = modules[i].getPosition();
-    }
-    return states;
-  }
-
   /** Returns the current pose estimation. */
   @AutoLogOutput(key = "Odometry/PoseEstimation")
   public Pose2d getPose() {
-    return poseEstimator.getEstimatedPosition();
+    return poseTracker.getSnapshot().pose();
   }
 
   /** Returns the current odometry pose. */
   @AutoLogOutput(key = "Odometry/Drive")
   public Pose2d getDrive() {
-    return odometryDrive.getEstimatedPosition();
+    return poseTracker.getSnapshot().odometryPose();
+  }
+
+  /**
+   * Returns the latest timestamped pose snapshot. The pose estimation and odometry pose are always
+   * consistent with each other and with the timestamp.
+   */
+  public PoseSnapshot getPoseSnapshot() {
+    return poseTracker.getSnapshot();
+  }
+
+  /**
+   * Returns the pose estimate at the requested time, interpolated from recent history. Use {@link
+   * #getPoseHistory()} directly to avoid allocating.
+   *
+   * @param timestamp The time to sample at in seconds.
+   * @return The pose, or empty if the time is older than the history.
+   */
+  public Optional<Pose2d> getPoseAt(double timestamp) {
+    double[] pose = new double[3];
+    if (!poseTracker.getHistory().getPoseAt(timestamp, pose)) {
+      return Optional.empty();
+    }
+    return Optional.of(new Pose2d(pose[0], pose[1], new Rotation2d(pose[2])));
+  }
+
+  /**
+   * Returns the field-relative velocity at the requested time, estimated from recent history. Use
+   * {@link #getPoseHistory()} directly to avoid allocating.
+   *
+   * @param timestamp The time to sample at in seconds.
+   * @return The field-relative velocity, or empty if the time is older than the history.
+   */
+  public Optional<ChassisSpeeds> getVelocityAt(double timestamp) {
+    double[] velocity = new double[3];
+    if (!poseTracker.getHistory().getVelocityAt(timestamp, velocity)) {
+      return Optional.empty();
+    }
+    return Optional.of(new ChassisSpeeds(velocity[0], velocity[1], velocity[2]));
+  }
+
+  /** Returns the history of pose estimates, which can be queried without allocating. */
+  public PoseHistory getPoseHistory() {
+    return poseTracker.getHistory();
   }
 
   /** Returns the current poseEstimator rotation. */
@@ -302,7 +365,7 @@ public class Drive extends SubsystemBase {
    * @param pose The pose to reset to.
    */
   public void setPose(Pose2d pose) {
-    poseEstimator.resetPosition(rawGyroRotation, getModulePositions(), pose);
+    poseTracker.resetPose(pose, false);
   }
 
   /**
@@ -311,8 +374,7 @@ public class Drive extends SubsystemBase {
    * @param pose The pose to reset to.
    */
   public void setAutoStartPose(Pose2d pose) {
-    poseEstimator.resetPosition(rawGyroRotation, getModulePositions(), pose);
-    odometryDrive.resetPosition(rawGyroRotation, getModulePositions(), pose);
+    poseTracker.resetPose(pose, true);
   }
 
   /**
@@ -323,18 +385,16 @@ public class Drive extends SubsystemBase {
    */
   public void addVisionMeasurement(
       Pose2d visionPose, double timestamp, Matrix<N3, N1> visionMeasurementStdDevs) {
-    poseEstimator.addVisionMeasurement(visionPose, timestamp, visionMeasurementStdDevs);
+    poseTracker.addVisionMeasurement(visionPose, timestamp, visionMeasurementStdDevs);
   }
 
   /**
-   * Adds vision data to the pose esimation.
+   * Adds vision data to the pose esimation. Updates are applied together in timestamp order, so
+   * odometry is only replayed once from the oldest measurement.
    *
    * @param visionData The vision data to add.
    */
   public void addVisionData(List<TimestampedVisionUpdate> visionData) {
-    visionData.forEach(
-        visionUpdate ->
-            addVisionMeasurement(
-                visionUpdate.pose(), visionUpdate.timestamp(), visionUpdate.stdDevs()));
+    poseTracker.addVisionMeasurements(visionData);
   }
 }
@@ -10,6 +10,7 @@ import edu.wpi.first.math.numbers.N1;
 import edu.wpi.first.math.numbers.N3;
 import edu.wpi.first.math.util.Units;
 import frc.robot.Constants;
+import frc.robot.subsystems.drive.OdometryChannel.OverflowPolicy;
 
 /** All Constants Measured in Meters and Radians (m/s, m/s^2, rad/s, rad/s^2) */
 public final class DriveConstants {
@@ -44,6 +45,16 @@ public final class DriveConstants {
         case SIMBOT -> 50.0;
         case COMPBOT -> 250.0;
       };
+  // Integrate odometry on the odometry thread as samples arrive instead of once per loop. Only used
+  // on the real robot, since the result cannot be reproduced in replay.
+  public static final boolean threadedPoseEstimation = false;
+  // Run the module velocity and angle loops on the motor controllers instead of the main loop,
+  // using the gains from "moduleConstants"
+  public static final boolean onboardModuleControl = false;
+  // Duration of pose estimates kept for timestamp queries
+  public static final double poseHistorySecs = 2.0;
+  // How odometry channels handle samples when the main loop falls behind
+  public static final OverflowPolicy odometryOverflowPolicy = OverflowPolicy.COALESCE;
   public static final Matrix<N3, N1> stateStdDevs =
       switch (Constants.getRobot()) {
         default -> new Matrix<>(VecBuilder.fill(0.003, 0.003, 0.0002));
@@ -105,16 +116,16 @@ public final class DriveConstants {
             new ModuleConstants(
                 0.1,
                 0.13,
-                0.1,
+                0.05,
                 0.0,
-                10.0,
+                7.0,
                 0.0,
                 Mk4iReductions.L2.reduction,
                 Mk4iReductions.TURN.reduction);
         case SIMBOT ->
             new ModuleConstants(
-                0.014,
-                0.134,
+                0.0,
+                0.13,
                 0.1,
                 0.0,
                 10.0,
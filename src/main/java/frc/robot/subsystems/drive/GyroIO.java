@@ -27,4 +27,15 @@ public interface GyroIO {
   }
 
   public default void updateInputs(GyroIOInputs inputs) {}
+
+  /**
+   * Reads the newest yaw sample directly, bypassing the logged inputs. Only used when pose
+   * estimation runs on the odometry thread.
+   *
+   * @param sample Output for the timestamp (seconds) and yaw (radians).
+   * @return False if no sample is available.
+   */
+  public default boolean readLatestYaw(double[] sample) {
+    return false;
+  }
 }
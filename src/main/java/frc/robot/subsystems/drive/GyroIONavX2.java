@@ -4,29 +4,28 @@ import com.kauailabs.navx.frc.AHRS;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.util.Units;
 import edu.wpi.first.wpilibj.SPI;
-import java.util.OptionalDouble;
-import java.util.Queue;
+import frc.robot.subsystems.drive.SignalHub.PushedSignal;
 
 public class GyroIONavX2 implements GyroIO {
   private final AHRS navx = new AHRS(SPI.Port.kMXP);
-  private final Queue<Double> yawPositionQueue;
+  private final OdometryChannel yawChannel;
+  private final double[][] yawTimestampBuffer;
+  private final double[][] yawPositionBuffer;
+  private final double[] latestYawTimestamps = new double[1];
+  private final double[] latestYawValues = new double[1];
 
   public GyroIONavX2() {
     navx.reset();
     navx.resetDisplacement();
     navx.zeroYaw();
 
-    yawPositionQueue =
-        SparkMaxOdometryThread.getInstance()
-            .registerSignal(
-                () -> {
-                  boolean valid = navx.isConnected();
-                  if (valid) {
-                    return OptionalDouble.of(navx.getYaw());
-                  } else {
-                    return OptionalDouble.empty();
-                  }
-                });
+    // Sample the newest yaw from the NavX data callback instead of polling it
+    PushedSignal yawSignal = new PushedSignal();
+    navx.registerCallback(
+        (systemTimestamp, sensorTimestamp, update, context) -> yawSignal.push(navx.getYaw()), null);
+    yawChannel = SignalHub.getInstance().registerPushed(yawSignal);
+    yawTimestampBuffer = new double[1][yawChannel.getCapacity()];
+    yawPositionBuffer = new double[1][yawChannel.getCapacity()];
   }
 
   @Override
@@ -34,9 +33,23 @@ public class GyroIONavX2 implements GyroIO {
     inputs.connected = navx.isConnected();
     inputs.yawPosition = Rotation2d.fromDegrees(navx.getYaw());
     inputs.yawVelocityRadPerSec = Units.degreesToRadians(navx.getRawGyroZ());
-    inputs.odometryYawPositions =
-        yawPositionQueue.stream().map(Rotation2d::fromDegrees).toArray(Rotation2d[]::new);
 
-    yawPositionQueue.clear();
+    int sampleCount = yawChannel.drain(yawTimestampBuffer, yawPositionBuffer);
+    inputs.odometryYawTimestamps = new double[sampleCount];
+    inputs.odometryYawPositions = new Rotation2d[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      inputs.odometryYawTimestamps[i] = yawTimestampBuffer[0][i];
+      inputs.odometryYawPositions[i] = Rotation2d.fromDegrees(yawPositionBuffer[0][i]);
+    }
+  }
+
+  @Override
+  public boolean readLatestYaw(double[] sample) {
+    if (!yawChannel.readLatest(latestYawTimestamps, latestYawValues)) {
+      return false;
+    }
+    sample[0] = latestYawTimestamps[0];
+    sample[1] = Units.degreesToRadians(latestYawValues[0]);
+    return true;
   }
 }
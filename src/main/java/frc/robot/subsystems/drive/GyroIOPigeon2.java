@@ -15,61 +15,70 @@ package frc.robot.subsystems.drive;
 
 import static frc.robot.subsystems.drive.DriveConstants.*;
 
-import com.ctre.phoenix6.BaseStatusSignal;
-import com.ctre.phoenix6.StatusCode;
 import com.ctre.phoenix6.StatusSignal;
 import com.ctre.phoenix6.configs.Pigeon2Configuration;
 import com.ctre.phoenix6.hardware.Pigeon2;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.util.Units;
-import java.util.OptionalDouble;
-import java.util.Queue;
+import frc.robot.util.ParallelInitializer;
+import frc.robot.util.PhoenixConfigs;
+import frc.robot.util.StatusSignalRegistry;
+import frc.robot.util.StatusSignalRegistry.SignalClass;
 
 /** IO implementation for Pigeon2 */
 public class GyroIOPigeon2 implements GyroIO {
   private final Pigeon2 pigeon = new Pigeon2(gyroID, canbus);
   private final StatusSignal<Double> yaw = pigeon.getYaw();
-  private final Queue<Double> yawPositionQueue;
-  private final Queue<Double> yawTimestampQueue;
+  private final OdometryChannel yawChannel;
+  private final double[][] yawTimestampBuffer;
+  private final double[][] yawPositionBuffer;
+  private final double[] latestYawTimestamps = new double[1];
+  private final double[] latestYawValues = new double[1];
   private final StatusSignal<Double> yawVelocity = pigeon.getAngularVelocityZWorld();
 
-  public GyroIOPigeon2(boolean phoenixDrive) {
-    pigeon.getConfigurator().apply(new Pigeon2Configuration());
+  public GyroIOPigeon2() {
+    PhoenixConfigs.applyIfChanged(
+        new Pigeon2Configuration(),
+        new Pigeon2Configuration(),
+        pigeon.getConfigurator()::refresh,
+        pigeon.getConfigurator()::apply);
     pigeon.getConfigurator().setYaw(0.0);
-    yaw.setUpdateFrequency(odometryFrequency);
-    yawVelocity.setUpdateFrequency(odometryFrequency);
-    pigeon.optimizeBusUtilization();
-    if (phoenixDrive) {
-      yawTimestampQueue = PhoenixOdometryThread.getInstance().makeTimestampQueue();
-      yawPositionQueue =
-          PhoenixOdometryThread.getInstance().registerSignal(pigeon, pigeon.getYaw());
-    } else {
-      yawTimestampQueue = SparkMaxOdometryThread.getInstance().makeTimestampQueue();
-      yawPositionQueue =
-          SparkMaxOdometryThread.getInstance()
-              .registerSignal(
-                  () -> {
-                    boolean valid = yaw.refresh().getStatus().isOK();
-                    if (valid) {
-                      return OptionalDouble.of(yaw.getValueAsDouble());
-                    } else {
-                      return OptionalDouble.empty();
-                    }
-                  });
-    }
+    ParallelInitializer.register(
+        () -> {
+          StatusSignalRegistry.getInstance().register(pigeon, SignalClass.ODOMETRY, yaw);
+          StatusSignalRegistry.getInstance().register(pigeon, SignalClass.CONTROL, yawVelocity);
+        });
+    yawChannel =
+        ParallelInitializer.registerAndGet(
+            () -> SignalHub.getInstance().registerPhoenix(pigeon, pigeon.getYaw()),
+            SignalHub.getInstance()::unregister);
+    yawTimestampBuffer = new double[1][yawChannel.getCapacity()];
+    yawPositionBuffer = new double[1][yawChannel.getCapacity()];
   }
 
   @Override
   public void updateInputs(GyroIOInputs inputs) {
-    inputs.connected = BaseStatusSignal.refreshAll(yaw, yawVelocity).equals(StatusCode.OK);
+    // Signals are refreshed by StatusSignalRegistry at the start of the loop
+    inputs.connected = yaw.getStatus().isOK() && yawVelocity.getStatus().isOK();
     inputs.yawPosition = Rotation2d.fromDegrees(yaw.getValueAsDouble());
     inputs.yawVelocityRadPerSec = Units.degreesToRadians(yawVelocity.getValueAsDouble());
 
-    inputs.odometryYawTimestamps =
-        yawTimestampQueue.stream().mapToDouble((Double value) -> value).toArray();
-    inputs.odometryYawPositions =
-        yawPositionQueue.stream().map(Rotation2d::fromDegrees).toArray(Rotation2d[]::new);
-    yawTimestampQueue.clear();
-    yawPositionQueue.clear();
+    int sampleCount = yawChannel.drain(yawTimestampBuffer, yawPositionBuffer);
+    inputs.odometryYawTimestamps = new double[sampleCount];
+    inputs.odometryYawPositions = new Rotation2d[sampleCount];
+    for (int i = 0; i < sampleCount; i++) {
+      inputs.odometryYawTimestamps[i] = yawTimestampBuffer[0][i];
+      inputs.odometryYawPositions[i] = Rotation2d.fromDegrees(yawPositionBuffer[0][i]);
+    }
+  }
+
+  @Override
+  public boolean readLatestYaw(double[] sample) {
+    if (!yawChannel.readLatest(latestYawTimestamps, latestYawValues)) {
+      return false;
+    }
+    sample[0] = latestYawTimestamps[0];
+    sample[1] = Units.degreesToRadians(latestYawValues[0]);
+    return true;
   }
 }
@@ -15,51 +15,40 @@ package frc.robot.subsystems.drive;
 
 import static frc.robot.subsystems.drive.DriveConstants.*;
 
+import edu.wpi.first.math.MathUtil;
 import edu.wpi.first.math.controller.PIDController;
 import edu.wpi.first.math.controller.SimpleMotorFeedforward;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.math.kinematics.SwerveModuleState;
-import frc.robot.Constants;
+import frc.robot.util.LoopProfiler;
 import org.littletonrobotics.junction.Logger;
 
-public class Module {
+public class Module implements OdometryIntegrator.ModuleSamples {
   private final ModuleIO io;
   private final ModuleIOInputsAutoLogged inputs = new ModuleIOInputsAutoLogged();
   private final int index;
+  // Shared with Drive, so the total covers the gyro and every module
+  private final LoopProfiler.Section processInputsSection =
+      LoopProfiler.getInstance().section("Drive/ProcessInputs");
 
   private final SimpleMotorFeedforward driveFeedforward;
   private final PIDController driveFeedback;
   private final PIDController turnFeedback;
   private Rotation2d angleSetpoint = null; // Setpoint for closed loop control, null for open loop
   private Double speedSetpoint = null; // Setpoint for closed loop control, null for open loop
-  private Rotation2d turnRelativeOffset = null; // Relative + Offset = Absolute
-  private SwerveModulePosition[] odometryPositions = new SwerveModulePosition[] {};
+  private volatile Rotation2d turnRelativeOffset = null; // Relative + Offset = Absolute
+  private final double[] latestOdometrySample = new double[3]; // Only used by odometry thread
 
   public Module(ModuleIO io, int index) {
     this.io = io;
     this.index = index;
 
-    // Switch constants based on mode (the physics simulator is treated as a
-    // separate robot with different tuning)
-    switch (Constants.getMode()) {
-      case REAL:
-      case REPLAY:
-        driveFeedforward = new SimpleMotorFeedforward(0.1, 0.13);
-        driveFeedback = new PIDController(0.05, 0.0, 0.0);
-        turnFeedback = new PIDController(7.0, 0.0, 0.0);
-        break;
-      case SIM:
-        driveFeedforward = new SimpleMotorFeedforward(0.0, 0.13);
-        driveFeedback = new PIDController(0.1, 0.0, 0.0);
-        turnFeedback = new PIDController(10.0, 0.0, 0.0);
-        break;
-      default:
-        driveFeedforward = new SimpleMotorFeedforward(0.0, 0.0);
-        driveFeedback = new PIDController(0.0, 0.0, 0.0);
-        turnFeedback = new PIDController(0.0, 0.0, 0.0);
-        break;
-    }
+    // Use the same gains as the onboard loops, so "onboardModuleControl" only changes where the
+    // loops run (each robot type has its own constants, so the simulator keeps its own tuning)
+    driveFeedforward = new SimpleMotorFeedforward(moduleConstants.ffKs(), moduleConstants.ffKv());
+    driveFeedback = new PIDController(moduleConstants.driveKp(), 0.0, moduleConstants.drivekD());
+    turnFeedback = new PIDController(moduleConstants.turnKp(), 0.0, moduleConstants.turnkD());
 
     turnFeedback.enableContinuousInput(-Math.PI, Math.PI);
     setBrakeMode(true);
@@ -67,14 +56,16 @@ public class Module {
 
   /**
    * Update inputs without running the rest of the periodic logic. This is useful since these
-   * updates need to be properly thread-locked.
+   * updates need to happen after the odometry fence is latched.
    */
   public void updateInputs() {
     io.updateInputs(inputs);
   }
 
   public void periodic() {
+    long inputsStart = processInputsSection.start();
     Logger.processInputs("Drive/Module" + Integer.toString(index), inputs);
+    processInputsSection.end(inputsStart);
 
     // On first cycle, reset relative turn encoder
     // Wait until absolute angle is nonzero in case it wasn't initialized yet
@@ -84,8 +75,16 @@ public class Module {
 
     // Run closed loop turn control
     if (angleSetpoint != null) {
-      io.setTurnVoltage(
-          turnFeedback.calculate(getAngle().getRadians(), angleSetpoint.getRadians()));
+      double turnError =
+          MathUtil.angleModulus(angleSetpoint.getRadians() - getAngle().getRadians());
+      if (onboardModuleControl) {
+        // Take the shortest path from the current relative position, since the motor controller
+        // does not wrap the setpoint
+        io.setTurnPosition(inputs.turnPosition.getRadians() + turnError);
+      } else {
+        io.setTurnVoltage(
+            turnFeedback.calculate(getAngle().getRadians(), angleSetpoint.getRadians()));
+      }
 
       // Run closed loop drive control
       // Only allowed if closed loop turn control is running
@@ -95,26 +94,19 @@ public class Module {
         // When the error is 90 degrees, the velocity setpoint should be 0. As the wheel turns
         // towards the setpoint, its velocity should increase. This is achieved by
         // taking the component of the velocity in the direction of the setpoint.
-        double adjustSpeedSetpoint = speedSetpoint * Math.cos(turnFeedback.getPositionError());
+        double adjustSpeedSetpoint = speedSetpoint * Math.cos(turnError);
 
         // Run drive controller
         double velocityRadPerSec = adjustSpeedSetpoint / wheelRadius;
-        io.setDriveVoltage(
-            driveFeedforward.calculate(velocityRadPerSec)
-                + driveFeedback.calculate(inputs.driveVelocityRadPerSec, velocityRadPerSec));
+        if (onboardModuleControl) {
+          io.setDriveVelocity(velocityRadPerSec, driveFeedforward.calculate(velocityRadPerSec));
+        } else {
+          io.setDriveVoltage(
+              driveFeedforward.calculate(velocityRadPerSec)
+                  + driveFeedback.calculate(inputs.driveVelocityRadPerSec, velocityRadPerSec));
+        }
       }
     }
-
-    // Calculate positions for odometry
-    int sampleCount = inputs.odometryTimestamps.length; // All signals are sampled together
-    odometryPositions = new SwerveModulePosition[sampleCount];
-    for (int i = 0; i < sampleCount; i++) {
-      double positionMeters = inputs.odometryDrivePositionsRad[i] * wheelRadius;
-      Rotation2d angle =
-          inputs.odometryTurnPositions[i].plus(
-              turnRelativeOffset != null ? turnRelativeOffset : new Rotation2d());
-      odometryPositions[i] = new SwerveModulePosition(positionMeters, angle);
-    }
   }
 
   /** Runs the module with the specified setpoint state. Returns the optimized state. */
@@ -185,12 +177,76 @@ public class Module {
     return new SwerveModuleState(getVelocityMetersPerSec(), getAngle());
   }
 
-  /** Returns the module positions received this cycle. */
-  public SwerveModulePosition[] getOdometryPositions() {
-    return odometryPositions;
+  /**
+   * Returns the drive position at the requested time in meters, interpolated from the samples
+   * received this cycle. Must only be called if at least one sample was received.
+   *
+   * @param timestamp The time to sample at in seconds.
+   */
+  @Override
+  public double getOdometryDistanceAt(double timestamp) {
+    return OdometryInterpolation.interpolate(
+            inputs.odometryTimestamps, inputs.odometryDrivePositionsRad, timestamp)
+        * wheelRadius;
+  }
+
+  /**
+   * Returns the turn angle at the requested time in radians, interpolated from the samples received
+   * this cycle. The turn signal is interpolated separately from the drive signal since each carries
+   * its own timestamp. Must only be called if at least one sample was received.
+   *
+   * @param timestamp The time to sample at in seconds.
+   */
+  @Override
+  public double getOdometryAngleAt(double timestamp) {
+    // Logs recorded before turn timestamps were added only contain drive timestamps
+    double[] turnTimestamps =
+        inputs.odometryTurnTimestamps.length == inputs.odometryTurnPositions.length
+            ? inputs.odometryTurnTimestamps
+            : inputs.odometryTimestamps;
+    Rotation2d offset = turnRelativeOffset;
+    return OdometryInterpolation.interpolateAngle(
+            turnTimestamps, inputs.odometryTurnPositions, timestamp)
+        + (offset != null ? offset.getRadians() : 0.0);
+  }
+
+  /**
+   * Reads the newest odometry sample directly from the odometry thread instead of the logged
+   * inputs. Only used when pose estimation runs on the odometry thread.
+   *
+   * @return False if no sample is available.
+   */
+  public boolean readLatestOdometry() {
+    return io.readLatestOdometry(latestOdometrySample);
+  }
+
+  /** Returns the timestamp of the sample read by {@link #readLatestOdometry()}. */
+  public double getLatestOdometryTimestamp() {
+    return latestOdometrySample[0];
+  }
+
+  /** Returns the drive position in meters of the sample read by {@link #readLatestOdometry()}. */
+  public double getLatestOdometryDistance() {
+    return latestOdometrySample[1] * wheelRadius;
+  }
+
+  /** Returns the turn angle in radians of the sample read by {@link #readLatestOdometry()}. */
+  public double getLatestOdometryAngle() {
+    Rotation2d offset = turnRelativeOffset;
+    return latestOdometrySample[2] + (offset != null ? offset.getRadians() : 0.0);
+  }
+
+  /**
+   * Returns the number of samples lost immediately before each sample received this cycle. Empty
+   * for logs recorded before overflow accounting was added.
+   */
+  @Override
+  public int[] getOdometryDroppedSamples() {
+    return inputs.odometryDroppedSamples;
   }
 
-  /** Returns the timestamps of the samples received this cycle. */
+  /** Returns the drive position timestamps of the samples received this cycle. */
+  @Override
   public double[] getOdometryTimestamps() {
     return inputs.odometryTimestamps;
   }
@@ -30,20 +30,52 @@ public interface ModuleIO {
     public double turnAppliedVolts = 0.0;
     public double[] turnCurrentAmps = new double[] {};
 
-    public double[] odometryTimestamps = new double[] {};
+    public double[] odometryTimestamps = new double[] {}; // Drive position timestamps
+    public double[] odometryTurnTimestamps = new double[] {};
     public double[] odometryDrivePositionsRad = new double[] {};
     public Rotation2d[] odometryTurnPositions = new Rotation2d[] {};
+    public int[] odometryDroppedSamples = new int[] {}; // Samples lost before each sample
   }
 
   /** Updates the set of loggable inputs. */
   public default void updateInputs(ModuleIOInputs inputs) {}
 
+  /**
+   * Reads the newest odometry sample directly, bypassing the logged inputs. Only used when pose
+   * estimation runs on the odometry thread.
+   *
+   * @param sample Output for the timestamp (seconds), drive position (radians), and turn position
+   *     (radians).
+   * @return False if no sample is available.
+   */
+  public default boolean readLatestOdometry(double[] sample) {
+    return false;
+  }
+
   /** Run the drive motor at the specified voltage. */
   public default void setDriveVoltage(double volts) {}
 
   /** Run the turn motor at the specified voltage. */
   public default void setTurnVoltage(double volts) {}
 
+  /**
+   * Run the drive motor at the specified velocity using closed loop control on the motor
+   * controller.
+   *
+   * @param velocityRadPerSec The wheel velocity setpoint in radians/sec.
+   * @param ffVolts Feedforward voltage added to the closed loop output.
+   */
+  public default void setDriveVelocity(double velocityRadPerSec, double ffVolts) {}
+
+  /**
+   * Run the turn motor to the specified position using closed loop control on the motor
+   * controller.
+   *
+   * @param positionRad The module angle setpoint in radians, relative to the same unwrapped frame
+   *     as "turnPosition".
+   */
+  public default void setTurnPosition(double positionRad) {}
+
   /** Enable or disable brake mode on the drive motor. */
   public default void setDriveBrakeMode(boolean enable) {}
 
@@ -16,6 +16,7 @@ package frc.robot.subsystems.drive;
 import static frc.robot.subsystems.drive.DriveConstants.*;
 
 import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.controller.PIDController;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.system.plant.DCMotor;
 import edu.wpi.first.wpilibj.Timer;
@@ -40,8 +41,31 @@ public class ModuleIOSim implements ModuleIO {
   private double driveAppliedVolts = 0.0;
   private double turnAppliedVolts = 0.0;
 
+  // Stand-in for the motor controller's onboard closed loop control
+  private final PIDController drivePID =
+      new PIDController(moduleConstants.driveKp(), 0.0, moduleConstants.drivekD());
+  private final PIDController turnPID =
+      new PIDController(moduleConstants.turnKp(), 0.0, moduleConstants.turnkD());
+  private boolean driveClosedLoop = false;
+  private boolean turnClosedLoop = false;
+  private double driveFFVolts = 0.0;
+
   @Override
   public void updateInputs(ModuleIOInputs inputs) {
+    if (driveClosedLoop) {
+      driveAppliedVolts =
+          MathUtil.clamp(
+              drivePID.calculate(driveSim.getAngularVelocityRadPerSec()) + driveFFVolts,
+              -12.0,
+              12.0);
+      driveSim.setInputVoltage(driveAppliedVolts);
+    }
+    if (turnClosedLoop) {
+      turnAppliedVolts =
+          MathUtil.clamp(turnPID.calculate(turnSim.getAngularPositionRad()), -12.0, 12.0);
+      turnSim.setInputVoltage(turnAppliedVolts);
+    }
+
     driveSim.update(LOOP_PERIOD_SECS);
     turnSim.update(LOOP_PERIOD_SECS);
 
@@ -58,19 +82,35 @@ public class ModuleIOSim implements ModuleIO {
     inputs.turnCurrentAmps = new double[] {Math.abs(turnSim.getCurrentDrawAmps())};
 
     inputs.odometryTimestamps = new double[] {Timer.getFPGATimestamp()};
+    inputs.odometryTurnTimestamps = inputs.odometryTimestamps;
     inputs.odometryDrivePositionsRad = new double[] {inputs.drivePositionRad};
     inputs.odometryTurnPositions = new Rotation2d[] {inputs.turnPosition};
   }
 
   @Override
   public void setDriveVoltage(double volts) {
+    driveClosedLoop = false;
     driveAppliedVolts = MathUtil.clamp(volts, -12.0, 12.0);
     driveSim.setInputVoltage(driveAppliedVolts);
   }
 
   @Override
   public void setTurnVoltage(double volts) {
+    turnClosedLoop = false;
     turnAppliedVolts = MathUtil.clamp(volts, -12.0, 12.0);
     turnSim.setInputVoltage(turnAppliedVolts);
   }
+
+  @Override
+  public void setDriveVelocity(double velocityRadPerSec, double ffVolts) {
+    driveClosedLoop = true;
+    drivePID.setSetpoint(velocityRadPerSec);
+    driveFFVolts = ffVolts;
+  }
+
+  @Override
+  public void setTurnPosition(double positionRad) {
+    turnClosedLoop = true;
+    turnPID.setSetpoint(positionRad);
+  }
 }
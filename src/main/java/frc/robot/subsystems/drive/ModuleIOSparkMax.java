@@ -15,19 +15,22 @@ package frc.robot.subsystems.drive;
 
 import static frc.robot.subsystems.drive.DriveConstants.*;
 
+import com.revrobotics.CANSparkBase.ControlType;
 import com.revrobotics.CANSparkBase.IdleMode;
 import com.revrobotics.CANSparkLowLevel.MotorType;
 import com.revrobotics.CANSparkLowLevel.PeriodicFrame;
 import com.revrobotics.CANSparkMax;
 import com.revrobotics.REVLibError;
 import com.revrobotics.RelativeEncoder;
+import com.revrobotics.SparkPIDController;
+import com.revrobotics.SparkPIDController.ArbFFUnits;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.util.Units;
 import edu.wpi.first.wpilibj.AnalogInput;
 import edu.wpi.first.wpilibj.RobotController;
 import frc.robot.subsystems.drive.DriveConstants.ModuleConfig;
+import java.util.Arrays;
 import java.util.OptionalDouble;
-import java.util.Queue;
 
 /**
  * Module IO implementation for SparkMax drive motor controller, SparkMax turn motor controller (NEO
@@ -42,15 +45,24 @@ import java.util.Queue;
  * "/Drive/ModuleX/TurnAbsolutePositionRad"
  */
 public class ModuleIOSparkMax implements ModuleIO {
+  // The onboard PID loop period, since the Spark's derivative term uses the error change per loop
+  // rather than per second
+  private static final double sparkPidPeriodSecs = 0.001;
+
   private final CANSparkMax driveSparkMax;
   private final CANSparkMax turnSparkMax;
 
   private final RelativeEncoder driveEncoder;
   private final RelativeEncoder turnRelativeEncoder;
+  private final SparkPIDController drivePID;
+  private final SparkPIDController turnPID;
   private final AnalogInput turnAbsoluteEncoder;
-  private final Queue<Double> timestampQueue;
-  private final Queue<Double> drivePositionQueue;
-  private final Queue<Double> turnPositionQueue;
+  private final OdometryChannel odometryChannel; // Drive position, turn position
+  private final double[][] odometryTimestampBuffer;
+  private final double[][] odometryValueBuffer;
+  private final int[] odometryDroppedBuffer;
+  private final double[] latestOdometryTimestamps = new double[2];
+  private final double[] latestOdometryValues = new double[2];
 
   private final Rotation2d absoluteEncoderOffset;
 
@@ -61,28 +73,50 @@ public class ModuleIOSparkMax implements ModuleIO {
     turnAbsoluteEncoder = new AnalogInput(config.absoluteEncoderChannel());
     absoluteEncoderOffset = config.absoluteEncoderOffset(); // MUST BE CALIBRATED
 
-    driveSparkMax.restoreFactoryDefaults();
-    turnSparkMax.restoreFactoryDefaults();
-
     driveSparkMax.setCANTimeout(250);
     turnSparkMax.setCANTimeout(250);
 
     driveEncoder = driveSparkMax.getEncoder();
     turnRelativeEncoder = turnSparkMax.getEncoder();
+    drivePID = driveSparkMax.getPIDController();
+    turnPID = turnSparkMax.getPIDController();
 
-    turnSparkMax.setInverted(config.turnMotorInverted());
-    driveSparkMax.setSmartCurrentLimit(40);
-    turnSparkMax.setSmartCurrentLimit(30);
-    driveSparkMax.enableVoltageCompensation(12.0);
-    turnSparkMax.enableVoltageCompensation(12.0);
+    // Only restore defaults and burn flash if the persisted settings have changed, since reading
+    // them back is much faster than a flash write and avoids wearing out the flash
+    // Gains are converted from volts per wheel radians/sec to duty cycle per rotor RPM, and kD is
+    // also divided by the loop period to convert its time base from seconds to Spark loops
+    configureIfChanged(
+        driveSparkMax,
+        driveEncoder,
+        drivePID,
+        false,
+        40,
+        moduleConstants.driveKp() * 2.0 * Math.PI / 60.0 / moduleConstants.driveReduction() / 12.0,
+        moduleConstants.drivekD()
+            * 2.0
+            * Math.PI
+            / 60.0
+            / moduleConstants.driveReduction()
+            / 12.0
+            / sparkPidPeriodSecs);
+    // Gains are converted from volts per module radian to duty cycle per rotor rotation, with the
+    // same time base conversion for kD
+    configureIfChanged(
+        turnSparkMax,
+        turnRelativeEncoder,
+        turnPID,
+        config.turnMotorInverted(),
+        30,
+        moduleConstants.turnKp() * 2.0 * Math.PI / moduleConstants.turnReduction() / 12.0,
+        moduleConstants.turnkD()
+            * 2.0
+            * Math.PI
+            / moduleConstants.turnReduction()
+            / 12.0
+            / sparkPidPeriodSecs);
 
     driveEncoder.setPosition(0.0);
-    driveEncoder.setMeasurementPeriod(10);
-    driveEncoder.setAverageDepth(2);
-
     turnRelativeEncoder.setPosition(0.0);
-    turnRelativeEncoder.setMeasurementPeriod(10);
-    turnRelativeEncoder.setAverageDepth(2);
 
     driveSparkMax.setCANTimeout(0);
     turnSparkMax.setCANTimeout(0);
@@ -90,10 +124,9 @@ public class ModuleIOSparkMax implements ModuleIO {
     driveSparkMax.setPeriodicFramePeriod(
         PeriodicFrame.kStatus2, (int) (1000.0 / odometryFrequency));
     turnSparkMax.setPeriodicFramePeriod(PeriodicFrame.kStatus2, (int) (1000.0 / odometryFrequency));
-    timestampQueue = SparkMaxOdometryThread.getInstance().makeTimestampQueue();
-    drivePositionQueue =
-        SparkMaxOdometryThread.getInstance()
-            .registerSignal(
+    odometryChannel =
+        SignalHub.getInstance()
+            .registerPolled(
                 () -> {
                   double value = driveEncoder.getPosition();
                   if (driveSparkMax.getLastError() == REVLibError.kOk) {
@@ -101,10 +134,7 @@ public class ModuleIOSparkMax implements ModuleIO {
                   } else {
                     return OptionalDouble.empty();
                   }
-                });
-    turnPositionQueue =
-        SparkMaxOdometryThread.getInstance()
-            .registerSignal(
+                },
                 () -> {
                   double value = turnRelativeEncoder.getPosition();
                   if (turnSparkMax.getLastError() == REVLibError.kOk) {
@@ -113,9 +143,46 @@ public class ModuleIOSparkMax implements ModuleIO {
                     return OptionalDouble.empty();
                   }
                 });
+    odometryTimestampBuffer = new double[2][odometryChannel.getCapacity()];
+    odometryValueBuffer = new double[2][odometryChannel.getCapacity()];
+    odometryDroppedBuffer = new int[odometryChannel.getCapacity()];
+  }
+
+  /**
+   * Configures a Spark Max and burns its flash, unless the settings read back from the device
+   * already match. The smart current limit cannot be read back, so it is always set.
+   */
+  private static void configureIfChanged(
+      CANSparkMax sparkMax,
+      RelativeEncoder encoder,
+      SparkPIDController pid,
+      boolean inverted,
+      int currentLimit,
+      double kP,
+      double kD) {
+    boolean matches =
+        sparkMax.getInverted() == inverted
+            && sparkMax.getVoltageCompensationNominalVoltage() == 12.0
+            && encoder.getMeasurementPeriod() == 10
+            && encoder.getAverageDepth() == 2
+            && (float) pid.getP() == (float) kP
+            && (float) pid.getD() == (float) kD
+            && pid.getFF() == 0.0;
+    if (matches) {
+      sparkMax.setSmartCurrentLimit(currentLimit);
+      return;
+    }
 
-    driveSparkMax.burnFlash();
-    turnSparkMax.burnFlash();
+    sparkMax.restoreFactoryDefaults();
+    sparkMax.setInverted(inverted);
+    sparkMax.setSmartCurrentLimit(currentLimit);
+    sparkMax.enableVoltageCompensation(12.0);
+    encoder.setMeasurementPeriod(10);
+    encoder.setAverageDepth(2);
+    pid.setP(kP);
+    pid.setD(kD);
+    pid.setFF(0.0);
+    sparkMax.burnFlash();
   }
 
   @Override
@@ -141,22 +208,33 @@ public class ModuleIOSparkMax implements ModuleIO {
     inputs.turnAppliedVolts = turnSparkMax.getAppliedOutput() * turnSparkMax.getBusVoltage();
     inputs.turnCurrentAmps = new double[] {turnSparkMax.getOutputCurrent()};
 
-    inputs.odometryTimestamps =
-        timestampQueue.stream().mapToDouble((Double value) -> value).toArray();
-    inputs.odometryDrivePositionsRad =
-        drivePositionQueue.stream()
-            .mapToDouble(
-                (Double value) ->
-                    Units.rotationsToRadians(value) / moduleConstants.driveReduction())
-            .toArray();
-    inputs.odometryTurnPositions =
-        turnPositionQueue.stream()
-            .map(
-                (Double value) -> Rotation2d.fromRotations(value / moduleConstants.turnReduction()))
-            .toArray(Rotation2d[]::new);
-    timestampQueue.clear();
-    drivePositionQueue.clear();
-    turnPositionQueue.clear();
+    int sampleCount =
+        odometryChannel.drain(odometryTimestampBuffer, odometryValueBuffer, odometryDroppedBuffer);
+    inputs.odometryTimestamps = new double[sampleCount];
+    inputs.odometryTurnTimestamps = new double[sampleCount];
+    inputs.odometryDrivePositionsRad = new double[sampleCount];
+    inputs.odometryTurnPositions = new Rotation2d[sampleCount];
+    inputs.odometryDroppedSamples = Arrays.copyOf(odometryDroppedBuffer, sampleCount);
+    for (int i = 0; i < sampleCount; i++) {
+      inputs.odometryTimestamps[i] = odometryTimestampBuffer[0][i];
+      inputs.odometryTurnTimestamps[i] = odometryTimestampBuffer[1][i];
+      inputs.odometryDrivePositionsRad[i] =
+          Units.rotationsToRadians(odometryValueBuffer[0][i]) / moduleConstants.driveReduction();
+      inputs.odometryTurnPositions[i] =
+          Rotation2d.fromRotations(odometryValueBuffer[1][i] / moduleConstants.turnReduction());
+    }
+  }
+
+  @Override
+  public boolean readLatestOdometry(double[] sample) {
+    if (!odometryChannel.readLatest(latestOdometryTimestamps, latestOdometryValues)) {
+      return false;
+    }
+    sample[0] = latestOdometryTimestamps[0];
+    sample[1] =
+        Units.rotationsToRadians(latestOdometryValues[0]) / moduleConstants.driveReduction();
+    sample[2] = Units.rotationsToRadians(latestOdometryValues[1]) / moduleConstants.turnReduction();
+    return true;
   }
 
   @Override
@@ -169,6 +247,24 @@ public class ModuleIOSparkMax implements ModuleIO {
     turnSparkMax.setVoltage(volts);
   }
 
+  @Override
+  public void setDriveVelocity(double velocityRadPerSec, double ffVolts) {
+    drivePID.setReference(
+        Units.radiansPerSecondToRotationsPerMinute(velocityRadPerSec)
+            * moduleConstants.driveReduction(),
+        ControlType.kVelocity,
+        0,
+        ffVolts,
+        ArbFFUnits.kVoltage);
+  }
+
+  @Override
+  public void setTurnPosition(double positionRad) {
+    turnPID.setReference(
+        Units.radiansToRotations(positionRad) * moduleConstants.turnReduction(),
+        ControlType.kPosition);
+  }
+
   @Override
   public void setDriveBrakeMode(boolean enable) {
     driveSparkMax.setIdleMode(enable ? IdleMode.kBrake : IdleMode.kCoast);
@@ -15,12 +15,10 @@ package frc.robot.subsystems.drive;
 
 import static frc.robot.subsystems.drive.DriveConstants.*;
 
-import com.ctre.phoenix6.BaseStatusSignal;
 import com.ctre.phoenix6.StatusSignal;
 import com.ctre.phoenix6.configs.CANcoderConfiguration;
 import com.ctre.phoenix6.configs.MotorOutputConfigs;
 import com.ctre.phoenix6.configs.TalonFXConfiguration;
-import com.ctre.phoenix6.controls.VoltageOut;
 import com.ctre.phoenix6.hardware.CANcoder;
 import com.ctre.phoenix6.hardware.TalonFX;
 import com.ctre.phoenix6.signals.InvertedValue;
@@ -28,7 +26,13 @@ import com.ctre.phoenix6.signals.NeutralModeValue;
 import edu.wpi.first.math.geometry.Rotation2d;
 import edu.wpi.first.math.util.Units;
 import frc.robot.subsystems.drive.DriveConstants.ModuleConfig;
-import java.util.Queue;
+import frc.robot.util.DeviceConfigExecutor;
+import frc.robot.util.ParallelInitializer;
+import frc.robot.util.PhoenixConfigs;
+import frc.robot.util.StatusSignalRegistry;
+import frc.robot.util.StatusSignalRegistry.SignalClass;
+import frc.robot.util.TalonFXOutput;
+import java.util.Arrays;
 
 /**
  * Module IO implementation for Talon FX drive motor controller, Talon FX turn motor controller, and
@@ -46,18 +50,23 @@ public class ModuleIOTalonFX implements ModuleIO {
   private final TalonFX driveTalon;
   private final TalonFX turnTalon;
   private final CANcoder cancoder;
+  private final TalonFXOutput driveOutput;
+  private final TalonFXOutput turnOutput;
 
-  private final Queue<Double> timestampQueue;
+  private final OdometryChannel odometryChannel; // Drive position, turn position
+  private final double[][] odometryTimestampBuffer;
+  private final double[][] odometryValueBuffer;
+  private final int[] odometryDroppedBuffer;
+  private final double[] latestOdometryTimestamps = new double[2];
+  private final double[] latestOdometryValues = new double[2];
 
   private final StatusSignal<Double> drivePosition;
-  private final Queue<Double> drivePositionQueue;
   private final StatusSignal<Double> driveVelocity;
   private final StatusSignal<Double> driveAppliedVolts;
   private final StatusSignal<Double> driveCurrent;
 
   private final StatusSignal<Double> turnAbsolutePosition;
   private final StatusSignal<Double> turnPosition;
-  private final Queue<Double> turnPositionQueue;
   private final StatusSignal<Double> turnVelocity;
   private final StatusSignal<Double> turnAppliedVolts;
   private final StatusSignal<Double> turnCurrent;
@@ -69,64 +78,90 @@ public class ModuleIOTalonFX implements ModuleIO {
     turnTalon = new TalonFX(config.turnID(), canbus);
     cancoder = new CANcoder(config.absoluteEncoderChannel(), canbus);
     absoluteEncoderOffset = config.absoluteEncoderOffset();
+    driveOutput = ParallelInitializer.registerAndGet(() -> new TalonFXOutput(driveTalon));
+    turnOutput = ParallelInitializer.registerAndGet(() -> new TalonFXOutput(turnTalon));
 
     var driveConfig = new TalonFXConfiguration();
     driveConfig.CurrentLimits.SupplyCurrentLimit = 40.0;
     driveConfig.CurrentLimits.SupplyCurrentLimitEnable = true;
-    driveTalon.getConfigurator().apply(driveConfig);
-    setDriveBrakeMode(true);
+    driveConfig.MotorOutput.Inverted = InvertedValue.CounterClockwise_Positive;
+    driveConfig.MotorOutput.NeutralMode = NeutralModeValue.Brake;
+    // Gains are converted from wheel radians/sec to rotor rotations/sec
+    driveConfig.Slot0.kP =
+        moduleConstants.driveKp() * 2.0 * Math.PI / moduleConstants.driveReduction();
+    driveConfig.Slot0.kD =
+        moduleConstants.drivekD() * 2.0 * Math.PI / moduleConstants.driveReduction();
+    PhoenixConfigs.applyIfChanged(
+        driveConfig,
+        new TalonFXConfiguration(),
+        driveTalon.getConfigurator()::refresh,
+        driveTalon.getConfigurator()::apply);
 
     var turnConfig = new TalonFXConfiguration();
     turnConfig.CurrentLimits.SupplyCurrentLimit = 30.0;
     turnConfig.CurrentLimits.SupplyCurrentLimitEnable = true;
-    turnTalon.getConfigurator().apply(turnConfig);
-    setTurnBrakeMode(true);
-
-    cancoder.getConfigurator().apply(new CANcoderConfiguration());
+    turnConfig.MotorOutput.Inverted =
+        DriveConstants.moduleConfigs[0].turnMotorInverted()
+            ? InvertedValue.Clockwise_Positive
+            : InvertedValue.CounterClockwise_Positive;
+    turnConfig.MotorOutput.NeutralMode = NeutralModeValue.Brake;
+    // Gains are converted from module radians to rotor rotations
+    turnConfig.Slot0.kP =
+        moduleConstants.turnKp() * 2.0 * Math.PI / moduleConstants.turnReduction();
+    turnConfig.Slot0.kD =
+        moduleConstants.turnkD() * 2.0 * Math.PI / moduleConstants.turnReduction();
+    PhoenixConfigs.applyIfChanged(
+        turnConfig,
+        new TalonFXConfiguration(),
+        turnTalon.getConfigurator()::refresh,
+        turnTalon.getConfigurator()::apply);
 
-    timestampQueue = PhoenixOdometryThread.getInstance().makeTimestampQueue();
+    PhoenixConfigs.applyIfChanged(
+        new CANcoderConfiguration(),
+        new CANcoderConfiguration(),
+        cancoder.getConfigurator()::refresh,
+        cancoder.getConfigurator()::apply);
 
     drivePosition = driveTalon.getPosition();
-    drivePositionQueue =
-        PhoenixOdometryThread.getInstance().registerSignal(driveTalon, driveTalon.getPosition());
     driveVelocity = driveTalon.getVelocity();
     driveAppliedVolts = driveTalon.getMotorVoltage();
     driveCurrent = driveTalon.getStatorCurrent();
 
     turnAbsolutePosition = cancoder.getAbsolutePosition();
     turnPosition = turnTalon.getPosition();
-    turnPositionQueue =
-        PhoenixOdometryThread.getInstance().registerSignal(turnTalon, turnTalon.getPosition());
     turnVelocity = turnTalon.getVelocity();
     turnAppliedVolts = turnTalon.getMotorVoltage();
     turnCurrent = turnTalon.getStatorCurrent();
 
-    BaseStatusSignal.setUpdateFrequencyForAll(
-        DriveConstants.odometryFrequency, drivePosition, turnPosition);
-    BaseStatusSignal.setUpdateFrequencyForAll(
-        50.0,
-        driveVelocity,
-        driveAppliedVolts,
-        driveCurrent,
-        turnAbsolutePosition,
-        turnVelocity,
-        turnAppliedVolts,
-        turnCurrent);
+    var drivePositionSample = driveTalon.getPosition();
+    var turnPositionSample = turnTalon.getPosition();
+    odometryChannel =
+        ParallelInitializer.registerAndGet(
+            () ->
+                SignalHub.getInstance()
+                    .registerPhoenix(driveTalon, drivePositionSample, turnPositionSample),
+            SignalHub.getInstance()::unregister);
+    odometryTimestampBuffer = new double[2][odometryChannel.getCapacity()];
+    odometryValueBuffer = new double[2][odometryChannel.getCapacity()];
+    odometryDroppedBuffer = new int[odometryChannel.getCapacity()];
+
+    ParallelInitializer.register(
+        () -> {
+          var signalRegistry = StatusSignalRegistry.getInstance();
+          signalRegistry.register(driveTalon, SignalClass.ODOMETRY, drivePosition);
+          signalRegistry.register(turnTalon, SignalClass.ODOMETRY, turnPosition);
+          signalRegistry.register(
+              driveTalon, SignalClass.CONTROL, driveVelocity, driveAppliedVolts);
+          signalRegistry.register(turnTalon, SignalClass.CONTROL, turnVelocity, turnAppliedVolts);
+          signalRegistry.register(driveTalon, SignalClass.TELEMETRY, driveCurrent);
+          signalRegistry.register(turnTalon, SignalClass.TELEMETRY, turnCurrent);
+          signalRegistry.register(cancoder, SignalClass.TELEMETRY, turnAbsolutePosition);
+        });
   }
 
   @Override
   public void updateInputs(ModuleIOInputs inputs) {
-    BaseStatusSignal.refreshAll(
-        drivePosition,
-        driveVelocity,
-        driveAppliedVolts,
-        driveCurrent,
-        turnAbsolutePosition,
-        turnPosition,
-        turnVelocity,
-        turnAppliedVolts,
-        turnCurrent);
-
+    // Signals are refreshed by StatusSignalRegistry at the start of the loop
     inputs.drivePositionRad =
         Units.rotationsToRadians(drivePosition.getValueAsDouble())
             / moduleConstants.driveReduction();
@@ -146,32 +181,55 @@ public class ModuleIOTalonFX implements ModuleIO {
     inputs.turnAppliedVolts = turnAppliedVolts.getValueAsDouble();
     inputs.turnCurrentAmps = new double[] {turnCurrent.getValueAsDouble()};
 
-    inputs.odometryTimestamps =
-        timestampQueue.stream().mapToDouble((Double value) -> value).toArray();
-    inputs.odometryDrivePositionsRad =
-        drivePositionQueue.stream()
-            .mapToDouble(
-                (Double value) ->
-                    Units.rotationsToRadians(value) / moduleConstants.driveReduction())
-            .toArray();
-    inputs.odometryTurnPositions =
-        turnPositionQueue.stream()
-            .map(
-                (Double value) -> Rotation2d.fromRotations(value / moduleConstants.turnReduction()))
-            .toArray(Rotation2d[]::new);
-    timestampQueue.clear();
-    drivePositionQueue.clear();
-    turnPositionQueue.clear();
+    int sampleCount =
+        odometryChannel.drain(odometryTimestampBuffer, odometryValueBuffer, odometryDroppedBuffer);
+    inputs.odometryTimestamps = new double[sampleCount];
+    inputs.odometryTurnTimestamps = new double[sampleCount];
+    inputs.odometryDrivePositionsRad = new double[sampleCount];
+    inputs.odometryTurnPositions = new Rotation2d[sampleCount];
+    inputs.odometryDroppedSamples = Arrays.copyOf(odometryDroppedBuffer, sampleCount);
+    for (int i = 0; i < sampleCount; i++) {
+      inputs.odometryTimestamps[i] = odometryTimestampBuffer[0][i];
+      inputs.odometryTurnTimestamps[i] = odometryTimestampBuffer[1][i];
+      inputs.odometryDrivePositionsRad[i] =
+          Units.rotationsToRadians(odometryValueBuffer[0][i]) / moduleConstants.driveReduction();
+      inputs.odometryTurnPositions[i] =
+          Rotation2d.fromRotations(odometryValueBuffer[1][i] / moduleConstants.turnReduction());
+    }
+  }
+
+  @Override
+  public boolean readLatestOdometry(double[] sample) {
+    if (!odometryChannel.readLatest(latestOdometryTimestamps, latestOdometryValues)) {
+      return false;
+    }
+    sample[0] = latestOdometryTimestamps[0];
+    sample[1] =
+        Units.rotationsToRadians(latestOdometryValues[0]) / moduleConstants.driveReduction();
+    sample[2] = Units.rotationsToRadians(latestOdometryValues[1]) / moduleConstants.turnReduction();
+    return true;
   }
 
   @Override
   public void setDriveVoltage(double volts) {
-    driveTalon.setControl(new VoltageOut(volts));
+    driveOutput.setVoltage(volts);
   }
 
   @Override
   public void setTurnVoltage(double volts) {
-    turnTalon.setControl(new VoltageOut(volts));
+    turnOutput.setVoltage(volts);
+  }
+
+  @Override
+  public void setDriveVelocity(double velocityRadPerSec, double ffVolts) {
+    driveOutput.setVelocity(
+        Units.radiansToRotations(velocityRadPerSec) * moduleConstants.driveReduction(), ffVolts);
+  }
+
+  @Override
+  public void setTurnPosition(double positionRad) {
+    turnOutput.setPosition(
+        Units.radiansToRotations(positionRad) * moduleConstants.turnReduction());
   }
 
   @Override
@@ -179,7 +237,16 @@ public class ModuleIOTalonFX implements ModuleIO {
     var config = new MotorOutputConfigs();
     config.Inverted = InvertedValue.CounterClockwise_Positive;
     config.NeutralMode = enable ? NeutralModeValue.Brake : NeutralModeValue.Coast;
-    driveTalon.getConfigurator().apply(config);
+    DeviceConfigExecutor.getInstance()
+        .submit(
+            configKey(driveTalon, "MotorOutput"),
+            () ->
+                PhoenixConfigs.applyIfChanged(
+                        config,
+                        new MotorOutputConfigs(),
+                        driveTalon.getConfigurator()::refresh,
+                        driveTalon.getConfigurator()::apply)
+                    .isOK());
   }
 
   @Override
@@ -190,6 +257,19 @@ public class ModuleIOTalonFX implements ModuleIO {
             ? InvertedValue.Clockwise_Positive
             : InvertedValue.CounterClockwise_Positive;
     config.NeutralMode = enable ? NeutralModeValue.Brake : NeutralModeValue.Coast;
-    turnTalon.getConfigurator().apply(config);
+    DeviceConfigExecutor.getInstance()
+        .submit(
+            configKey(turnTalon, "MotorOutput"),
+            () ->
+                PhoenixConfigs.applyIfChanged(
+                        config,
+                        new MotorOutputConfigs(),
+                        turnTalon.getConfigurator()::refresh,
+                        turnTalon.getConfigurator()::apply)
+                    .isOK());
+  }
+
+  private static String configKey(TalonFX talon, String group) {
+    return "TalonFX " + talon.getDeviceID() + " (" + talon.getNetwork() + ")/" + group;
   }
 }
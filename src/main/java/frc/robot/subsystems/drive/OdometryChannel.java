@@ -0,0 +1,318 @@
+// Copyright 2021-2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// version 3 as published by the Free Software Foundation or
+// available in the root directory of this project.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+
+package frc.robot.subsystems.drive;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * Single-producer/single-consumer ring buffer of high-frequency odometry samples.
+ *
+ * <p>Each frame stores a sequence number followed by a timestamp and value for every signal,
+ * backed by a flat {@code double[]} so that samples are never boxed. Timestamps are tracked per
+ * signal so that consumers can align signals from different devices by time. The odometry thread
+ * is the only writer and the main loop is the only reader, which allows both sides to run without
+ * locking. Reads are bounded by an {@link OdometryFence} so that every channel fed by the same
+ * thread returns the same set of samples each cycle.
+ *
+ * <p>When the main loop falls behind, the {@link OverflowPolicy} decides which samples are lost.
+ * Since the producer numbers every sample, the consumer can report how many samples were lost
+ * before each frame it reads, regardless of the policy.
+ */
+public class OdometryChannel {
+  /** Behavior when a sample is written to a full channel. */
+  public enum OverflowPolicy {
+    /** Discard the new sample. */
+    DROP_NEWEST,
+    /** Overwrite the oldest unread sample. */
+    DROP_OLDEST,
+    /** Double the capacity, up to a fixed limit, then discard the new sample. */
+    GROW,
+    /** Discard the new sample, but return the newest sample after the buffered ones when read. */
+    COALESCE
+  }
+
+  private static final int maxGrowthFactor = 8;
+
+  /** Backing storage, replaced as a whole when the channel grows. */
+  private record Ring(double[] buffer, int capacity) {}
+
+  private final OdometryFence fence;
+  private final OverflowPolicy overflowPolicy;
+  private final int width;
+  private final int frameSize;
+  private final int maxCapacity;
+  private volatile Ring ring;
+  private final double[] latest; // Newest frame, even if it was dropped
+  private volatile long latestVersion = 0; // Odd while "latest" is being written
+
+  // Frames are indexed by monotonically increasing counters, the slot is (index % capacity)
+  private volatile long writeIndex = 0;
+  private volatile long readIndex = 0;
+
+  private volatile long overflowCount = 0; // Only written by the producer
+  private volatile long lastOverflowSequence = -1; // Only written by the producer
+  private long lastReadSequence = -1; // Only used by the consumer
+  private final double[] coalescedFrame; // Only used by the consumer
+
+  /**
+   * Creates a new channel.
+   *
+   * @param fence The fence published by the producer thread.
+   * @param width Number of signals stored in each frame.
+   * @param capacity Number of frames buffered between reads before overflowing.
+   * @param overflowPolicy Behavior when the channel is full.
+   */
+  public OdometryChannel(
+      OdometryFence fence, int width, int capacity, OverflowPolicy overflowPolicy) {
+    this.fence = fence;
+    this.overflowPolicy = overflowPolicy;
+    this.width = width;
+    this.frameSize = width * 2 + 1;
+    this.maxCapacity =
+        overflowPolicy == OverflowPolicy.GROW ? capacity * maxGrowthFactor : capacity;
+    this.ring = new Ring(new double[frameSize * capacity], capacity);
+    this.latest = new double[frameSize];
+    this.coalescedFrame = new double[frameSize];
+  }
+
+  /** Returns the number of signals stored in each frame. */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Returns the maximum number of frames returned by a single call to {@link #drain(double[][],
+   * double[][], int[])}, which is the minimum size of the destination arrays.
+   */
+  public int getCapacity() {
+    return overflowPolicy == OverflowPolicy.COALESCE ? maxCapacity + 1 : maxCapacity;
+  }
+
+  /** Returns the number of samples lost to overflow since the channel was created. */
+  public long getOverflowCount() {
+    return overflowCount;
+  }
+
+  /**
+   * Writes a frame to the channel. Only called from the producer thread.
+   *
+   * @param sequence The sequence number of the sample, which will be published to the fence.
+   * @param timestamps Array containing the timestamp of each signal in seconds.
+   * @param values Array containing the value of each signal.
+   * @param offset Index of this channel's first signal in "timestamps" and "values".
+   * @return False if the channel overflowed and a sample was lost.
+   */
+  public boolean offer(long sequence, double[] timestamps, double[] values, int offset) {
+    long version = latestVersion;
+    latestVersion = version + 1;
+    VarHandle.releaseFence();
+    writeFrame(latest, 0, sequence, timestamps, values, offset);
+    latestVersion = version + 2;
+
+    long write = writeIndex;
+    Ring current = ring;
+    boolean overflowed = false;
+    if (write - readIndex >= current.capacity()) {
+      if (overflowPolicy == OverflowPolicy.GROW && current.capacity() < maxCapacity) {
+        current = grow(current, write);
+      } else {
+        overflowed = true;
+        overflowCount = overflowCount + 1;
+        if (overflowPolicy != OverflowPolicy.DROP_OLDEST) {
+          lastOverflowSequence = sequence;
+          return false;
+        }
+        // Overwrite the oldest frame, the consumer discards it if the slot was being read
+      }
+    }
+    writeFrame(
+        current.buffer(),
+        (int) (write % current.capacity()) * frameSize,
+        sequence,
+        timestamps,
+        values,
+        offset);
+    writeIndex = write + 1; // Publish after the frame is complete
+    return !overflowed;
+  }
+
+  /**
+   * Copies all pending frames below the latched fence into caller-owned arrays and marks them as
+   * consumed. Only called from the consumer thread.
+   *
+   * @param timestamps Destination for frame timestamps, one array per signal, each with length of
+   *     at least {@link #getCapacity()}.
+   * @param values Destination for frame values, one array per signal, each with the same length as
+   *     the timestamp arrays.
+   * @return The number of frames copied.
+   */
+  public int drain(double[][] timestamps, double[][] values) {
+    return drain(timestamps, values, null);
+  }
+
+  /**
+   * Copies all pending frames below the latched fence into caller-owned arrays and marks them as
+   * consumed, recording where samples were lost. Only called from the consumer thread.
+   *
+   * @param timestamps Destination for frame timestamps, one array per signal, each with length of
+   *     at least {@link #getCapacity()}.
+   * @param values Destination for frame values, one array per signal, each with the same length as
+   *     the timestamp arrays.
+   * @param dropped Destination for the number of samples lost immediately before each frame, or
+   *     null if not needed.
+   * @return The number of frames copied.
+   */
+  public int drain(double[][] timestamps, double[][] values, int[] dropped) {
+    long write = writeIndex;
+    Ring current = ring; // Read after the write index, so it contains every published frame
+    long latched = fence.getLatched();
+    long read = Math.max(readIndex, write - current.capacity()); // Skip frames that were lapped
+    int available = (int) Math.min(write - read, timestamps[0].length);
+    int count = 0;
+    boolean reachedFence = false;
+    while (count < available) {
+      int base = (int) ((read + count) % current.capacity()) * frameSize;
+      if (current.buffer()[base] >= latched) {
+        reachedFence = true; // Published after the fence, leave for the next cycle
+        break;
+      }
+      readFrame(current.buffer(), base, count, timestamps, values, dropped);
+      count++;
+    }
+
+    if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+      // Frames may have been overwritten while being copied, discard them
+      VarHandle.acquireFence();
+      long firstValid = writeIndex - current.capacity() + 1;
+      int invalid = (int) Math.min(Math.max(firstValid - read, 0), count);
+      if (invalid > 0) {
+        for (int j = 0; j < width; j++) {
+          System.arraycopy(timestamps[j], invalid, timestamps[j], 0, count - invalid);
+          System.arraycopy(values[j], invalid, values[j], 0, count - invalid);
+        }
+        if (dropped != null && count > invalid) {
+          int lost = invalid;
+          for (int i = 0; i <= invalid; i++) {
+            lost += dropped[i];
+          }
+          System.arraycopy(dropped, invalid, dropped, 0, count - invalid);
+          dropped[0] = lost;
+        }
+        read += invalid;
+        count -= invalid;
+      }
+    }
+    readIndex = read + count; // Release slots after copying
+
+    // Append the newest sample if it was dropped after the buffered frames
+    if (overflowPolicy == OverflowPolicy.COALESCE
+        && !reachedFence
+        && count < timestamps[0].length
+        && lastOverflowSequence > lastReadSequence
+        && readLatestFrame(coalescedFrame)
+        && coalescedFrame[0] > lastReadSequence
+        && coalescedFrame[0] < latched) {
+      readFrame(coalescedFrame, 0, count, timestamps, values, dropped);
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Copies the newest sample without consuming it. Unlike {@link #drain(double[][], double[][],
+   * int[])}, this is safe to call from any thread and is not bounded by the fence.
+   *
+   * @param timestamps Destination for the signal timestamps, with length of at least {@link
+   *     #getWidth()}.
+   * @param values Destination for the signal values, with length of at least {@link #getWidth()}.
+   * @return False if no sample has been written yet.
+   */
+  public boolean readLatest(double[] timestamps, double[] values) {
+    while (true) {
+      long version = latestVersion;
+      if (version == 0) {
+        return false;
+      }
+      System.arraycopy(latest, 1, timestamps, 0, width);
+      System.arraycopy(latest, 1 + width, values, 0, width);
+      VarHandle.acquireFence();
+      if ((version & 1) == 0 && version == latestVersion) {
+        return true;
+      }
+      Thread.onSpinWait(); // Producer was writing, try again
+    }
+  }
+
+  private boolean readLatestFrame(double[] frame) {
+    while (true) {
+      long version = latestVersion;
+      if (version == 0) {
+        return false;
+      }
+      System.arraycopy(latest, 0, frame, 0, frameSize);
+      VarHandle.acquireFence();
+      if ((version & 1) == 0 && version == latestVersion) {
+        return true;
+      }
+      Thread.onSpinWait(); // Producer was writing, try again
+    }
+  }
+
+  private Ring grow(Ring old, long write) {
+    int newCapacity = Math.min(old.capacity() * 2, maxCapacity);
+    double[] newBuffer = new double[newCapacity * frameSize];
+    for (long i = readIndex; i < write; i++) {
+      System.arraycopy(
+          old.buffer(),
+          (int) (i % old.capacity()) * frameSize,
+          newBuffer,
+          (int) (i % newCapacity) * frameSize,
+          frameSize);
+    }
+    Ring grown = new Ring(newBuffer, newCapacity);
+    ring = grown; // Publish before any frame is written to the new buffer
+    return grown;
+  }
+
+  private void writeFrame(
+      double[] buffer,
+      int base,
+      long sequence,
+      double[] timestamps,
+      double[] values,
+      int offset) {
+    buffer[base] = sequence;
+    System.arraycopy(timestamps, offset, buffer, base + 1, width);
+    System.arraycopy(values, offset, buffer, base + 1 + width, width);
+  }
+
+  private void readFrame(
+      double[] buffer,
+      int base,
+      int index,
+      double[][] timestamps,
+      double[][] values,
+      int[] dropped) {
+    long sequence = (long) buffer[base];
+    for (int j = 0; j < width; j++) {
+      timestamps[j][index] = buffer[base + 1 + j];
+      values[j][index] = buffer[base + 1 + width + j];
+    }
+    if (dropped != null) {
+      dropped[index] =
+          lastReadSequence >= 0 ? (int) Math.max(sequence - lastReadSequence - 1, 0) : 0;
+    }
+    lastReadSequence = sequence;
+  }
+}
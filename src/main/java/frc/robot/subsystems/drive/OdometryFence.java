@@ -0,0 +1,130 @@
+// Copyright 2021-2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// version 3 as published by the Free Software Foundation or
+// available in the root directory of this project.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+
+package frc.robot.subsystems.drive;
+
+import frc.robot.util.LatencyHistogram;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Lock-free handoff between an odometry thread and the main loop.
+ *
+ * <p>The odometry thread tags every frame with a sequence number and publishes the sequence once
+ * all of its channels have been written. The main loop latches the published sequence before
+ * reading inputs, and channels only return frames below the latched value. This keeps the sample
+ * count consistent across every module and gyro without either thread ever blocking the other.
+ */
+public class OdometryFence {
+  private static final List<OdometryFence> fences = new CopyOnWriteArrayList<>();
+  private static final double summaryPeriodSecs = 1.0;
+  private static double lastSummaryTimestamp = 0.0;
+
+  private final String samplesKey;
+  private final String droppedKey;
+  private final String invalidKey;
+  private volatile long published = 0;
+  private long latched = 0;
+
+  // Timing is recorded on the odometry thread and summarized periodically by the main loop
+  private final LatencyHistogram periodHistogram;
+  private final LatencyHistogram wakeLatencyHistogram;
+  private final LatencyHistogram publishHistogram;
+  private final AtomicLong sampleCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong invalidCount = new AtomicLong();
+  private long lastWakeNanos = 0; // Only used by the odometry thread
+
+  /**
+   * Creates a new fence.
+   *
+   * @param name Name used when logging metrics.
+   */
+  public OdometryFence(String name) {
+    samplesKey = "Odometry/Handoff/" + name + "/Samples";
+    droppedKey = "Odometry/Timing/" + name + "/Dropped";
+    invalidKey = "Odometry/Timing/" + name + "/Invalid";
+    periodHistogram = new LatencyHistogram("Odometry/Timing/" + name + "/Period");
+    wakeLatencyHistogram = new LatencyHistogram("Odometry/Timing/" + name + "/WakeLatency");
+    publishHistogram = new LatencyHistogram("Odometry/Timing/" + name + "/Publish");
+    fences.add(this);
+  }
+
+  /**
+   * Marks every frame with a sequence number below the provided value as complete. Only called from
+   * the odometry thread.
+   */
+  public void publish(long sequence) {
+    published = sequence;
+  }
+
+  /**
+   * Records timing for one wake of the odometry thread, whether or not a sample was published. Only
+   * called from the odometry thread.
+   *
+   * @param wakeNanos The value of {@link System#nanoTime()} when the thread woke up.
+   * @param wakeLatencyNanos Time between new data being available and the thread waking up.
+   * @param publishNanos Time spent writing the sample to channels and publishing the fence.
+   */
+  public void recordSample(long wakeNanos, long wakeLatencyNanos, long publishNanos) {
+    if (lastWakeNanos != 0) {
+      periodHistogram.record(wakeNanos - lastWakeNanos);
+    }
+    lastWakeNanos = wakeNanos;
+    wakeLatencyHistogram.record(wakeLatencyNanos);
+    publishHistogram.record(publishNanos);
+    sampleCount.incrementAndGet();
+  }
+
+  /** Records a frame that was discarded because a channel was full. */
+  public void recordDropped() {
+    droppedCount.incrementAndGet();
+  }
+
+  /** Records a sample that was skipped or flagged because a signal was invalid. */
+  public void recordInvalid() {
+    invalidCount.incrementAndGet();
+  }
+
+  /** Returns the sequence latched by the last call to {@link #latchAll()}. */
+  public long getLatched() {
+    return latched;
+  }
+
+  /**
+   * Latches the published sequence of every fence and logs the handoff metrics. Timing summaries
+   * are logged once per second. Only called from the main loop, before reading odometry inputs.
+   */
+  public static void latchAll() {
+    double timestamp = Logger.getRealTimestamp() / 1e6;
+    boolean publishSummary = timestamp - lastSummaryTimestamp >= summaryPeriodSecs;
+    if (publishSummary) {
+      lastSummaryTimestamp = timestamp;
+    }
+
+    for (OdometryFence fence : fences) {
+      fence.latched = fence.published;
+      Logger.recordOutput(fence.samplesKey, fence.sampleCount.getAndSet(0));
+
+      if (publishSummary) {
+        fence.periodHistogram.publish();
+        fence.wakeLatencyHistogram.publish();
+        fence.publishHistogram.publish();
+        Logger.recordOutput(fence.droppedKey, fence.droppedCount.getAndSet(0));
+        Logger.recordOutput(fence.invalidKey, fence.invalidCount.getAndSet(0));
+      }
+    }
+  }
+}
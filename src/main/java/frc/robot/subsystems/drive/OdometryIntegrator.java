@@ -0,0 +1,196 @@
+// Copyright 2021-2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// version 3 as published by the Free Software Foundation or
+// available in the root directory of this project.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Rotation2d;
+import java.util.Arrays;
+
+/**
+ * Aligns the odometry samples received in one cycle and passes them to a sample consumer, one
+ * sample at a time. Used by Drive on the main loop and by the odometry benchmark, so it must not
+ * depend on DriveConstants, the logger or anything else that needs the HAL.
+ *
+ * <p>Each signal carries its own timestamp, so every module and the gyro are interpolated onto the
+ * drive samples of the first module with samples rather than matched by index. A module that
+ * received no samples holds its last position, so one missing or slow module does not stop
+ * odometry. Runs for every sample, so it only uses primitive math and preallocated buffers.
+ */
+final class OdometryIntegrator {
+  /** The odometry samples received by one module this cycle. */
+  interface ModuleSamples {
+    /** Returns the drive position timestamps of the samples received this cycle. */
+    double[] getOdometryTimestamps();
+
+    /** Returns the number of samples lost immediately before each sample, possibly empty. */
+    int[] getOdometryDroppedSamples();
+
+    /** Returns the drive position in meters at the requested time. */
+    double getOdometryDistanceAt(double timestamp);
+
+    /** Returns the turn angle in radians at the requested time. */
+    double getOdometryAngleAt(double timestamp);
+  }
+
+  /** Receives each aligned sample. The arrays are reused for every sample. */
+  @FunctionalInterface
+  interface SampleConsumer {
+    void addSample(double timestamp, double[] distances, double[] angles, double gyroYaw);
+  }
+
+  private final ModuleSamples[] modules;
+  private final SampleConsumer consumer;
+
+  // Preallocated buffers for integrating samples
+  private final boolean[] moduleHasSamples;
+  private final double[] sampleDistances;
+  private final double[] sampleAngles;
+  private final double[] stepDistances;
+  private final double[] stepAngles;
+  private final double[] lastSampleDistances;
+  private final double[] lastSampleAngles;
+  private double lastSampleTimestamp = 0.0;
+  private double lastSampleGyroYaw = Double.NaN;
+  private boolean hasLastSample = false;
+  private int[] mergedDroppedSamples = new int[0]; // Only grows, never shrinks
+
+  /**
+   * Creates a new integrator.
+   *
+   * @param modules The source of each module's samples.
+   * @param consumer Receives each aligned sample, e.g. the pose tracker.
+   */
+  OdometryIntegrator(ModuleSamples[] modules, SampleConsumer consumer) {
+    this.modules = modules;
+    this.consumer = consumer;
+    moduleHasSamples = new boolean[modules.length];
+    sampleDistances = new double[modules.length];
+    sampleAngles = new double[modules.length];
+    stepDistances = new double[modules.length];
+    stepAngles = new double[modules.length];
+    lastSampleDistances = new double[modules.length];
+    lastSampleAngles = new double[modules.length];
+  }
+
+  /**
+   * Integrates the samples received this cycle.
+   *
+   * @param yawTimestamps The gyro yaw timestamps, or an array of a different length than the
+   *     positions for logs recorded before yaw timestamps were added.
+   * @param yawPositions The gyro yaw samples.
+   * @param useGyro Whether the gyro is connected and its samples should be used.
+   * @return The number of samples lost to overflow this cycle, or -1 if no module received samples.
+   */
+  int integrate(double[] yawTimestamps, Rotation2d[] yawPositions, boolean useGyro) {
+    int referenceModule = -1;
+    for (int i = 0; i < modules.length; i++) {
+      moduleHasSamples[i] = modules[i].getOdometryTimestamps().length > 0;
+      if (referenceModule < 0 && moduleHasSamples[i]) {
+        referenceModule = i;
+      }
+    }
+    if (referenceModule < 0) {
+      return -1; // No module received samples this cycle
+    }
+    double[] sampleTimestamps = modules[referenceModule].getOdometryTimestamps();
+    if (yawTimestamps.length != yawPositions.length) {
+      yawTimestamps = sampleTimestamps; // Logs recorded before yaw timestamps were added
+    }
+    useGyro &= yawPositions.length > 0;
+
+    int[] droppedSamples = mergeDroppedSamples(sampleTimestamps);
+    int droppedCount = 0;
+    for (int i = 0; i < sampleTimestamps.length; i++) {
+      double timestamp = sampleTimestamps[i];
+
+      // Read wheel positions from each module, holding the last position of missing modules
+      for (int module = 0; module < modules.length; module++) {
+        if (moduleHasSamples[module]) {
+          sampleDistances[module] = modules[module].getOdometryDistanceAt(timestamp);
+          sampleAngles[module] = modules[module].getOdometryAngleAt(timestamp);
+        } else {
+          sampleDistances[module] = lastSampleDistances[module];
+          sampleAngles[module] = lastSampleAngles[module];
+        }
+      }
+
+      // Use the real gyro angle if available
+      double gyroYaw =
+          useGyro
+              ? OdometryInterpolation.interpolateAngle(yawTimestamps, yawPositions, timestamp)
+              : Double.NaN;
+
+      // Samples lost to overflow would otherwise be integrated as a single wheel delta using
+      // only the final module angles, so split the delta into evenly spaced steps instead
+      int dropped = droppedSamples[i];
+      droppedCount += dropped;
+      if (dropped > 0 && hasLastSample) {
+        // Without a yaw on both sides of the gap, let the consumer use the kinematic heading
+        boolean interpolateYaw = !Double.isNaN(gyroYaw) && !Double.isNaN(lastSampleGyroYaw);
+        for (int step = 1; step <= dropped; step++) {
+          double t = (double) step / (dropped + 1);
+          for (int module = 0; module < modules.length; module++) {
+            stepDistances[module] =
+                MathUtil.interpolate(lastSampleDistances[module], sampleDistances[module], t);
+            stepAngles[module] =
+                lastSampleAngles[module]
+                    + MathUtil.angleModulus(sampleAngles[module] - lastSampleAngles[module]) * t;
+          }
+          consumer.addSample(
+              MathUtil.interpolate(lastSampleTimestamp, timestamp, t),
+              stepDistances,
+              stepAngles,
+              interpolateYaw
+                  ? lastSampleGyroYaw + MathUtil.angleModulus(gyroYaw - lastSampleGyroYaw) * t
+                  : Double.NaN);
+        }
+      }
+
+      // Apply update
+      consumer.addSample(timestamp, sampleDistances, sampleAngles, gyroYaw);
+      hasLastSample = true;
+      lastSampleTimestamp = timestamp;
+      System.arraycopy(sampleDistances, 0, lastSampleDistances, 0, modules.length);
+      System.arraycopy(sampleAngles, 0, lastSampleAngles, 0, modules.length);
+      lastSampleGyroYaw = gyroYaw;
+    }
+    return droppedCount;
+  }
+
+  /**
+   * Merges the samples lost on every module's channel onto the reference samples. Each gap is moved
+   * to the reference sample nearest the one that ended the gap, and the largest gap reported by any
+   * module is kept, since channels sampled by the same thread usually overflow together.
+   *
+   * @param sampleTimestamps The drive position timestamps of the reference module.
+   * @return The number of samples lost before each sample, valid up to the number of samples.
+   */
+  private int[] mergeDroppedSamples(double[] sampleTimestamps) {
+    if (mergedDroppedSamples.length < sampleTimestamps.length) {
+      mergedDroppedSamples = new int[sampleTimestamps.length * 2];
+    }
+    Arrays.fill(mergedDroppedSamples, 0, sampleTimestamps.length, 0);
+    for (var module : modules) {
+      int[] dropped = module.getOdometryDroppedSamples();
+      double[] timestamps = module.getOdometryTimestamps();
+      for (int i = 0; i < Math.min(dropped.length, timestamps.length); i++) {
+        if (dropped[i] > 0) {
+          int index = OdometryInterpolation.nearestIndex(sampleTimestamps, timestamps[i]);
+          mergedDroppedSamples[index] = Math.max(mergedDroppedSamples[index], dropped[i]);
+        }
+      }
+    }
+    return mergedDroppedSamples;
+  }
+}
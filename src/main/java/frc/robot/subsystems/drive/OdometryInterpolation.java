@@ -0,0 +1,101 @@
+// Copyright 2021-2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// version 3 as published by the Free Software Foundation or
+// available in the root directory of this project.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Rotation2d;
+
+/**
+ * Helpers for aligning odometry signals that were sampled at slightly different times. Values are
+ * linearly interpolated between the surrounding samples and clamped to the first or last sample
+ * outside of the sampled range. Nothing is allocated, since these run for every odometry sample.
+ */
+final class OdometryInterpolation {
+  private OdometryInterpolation() {}
+
+  /**
+   * Interpolates a series of values at the requested time.
+   *
+   * @param timestamps Sample timestamps in ascending order.
+   * @param values Sample values, with the same length as "timestamps".
+   * @param timestamp The time to sample at in seconds.
+   */
+  static double interpolate(double[] timestamps, double[] values, double timestamp) {
+    int upper = upperIndex(timestamps, timestamp);
+    if (upper == 0) {
+      return values[0];
+    } else if (upper == timestamps.length) {
+      return values[timestamps.length - 1];
+    }
+    double t = fraction(timestamps, upper, timestamp);
+    return values[upper - 1] + (values[upper] - values[upper - 1]) * t;
+  }
+
+  /**
+   * Interpolates a series of rotations at the requested time, taking the shortest path between
+   * samples.
+   *
+   * @param timestamps Sample timestamps in ascending order.
+   * @param values Sample rotations, with the same length as "timestamps".
+   * @param timestamp The time to sample at in seconds.
+   * @return The interpolated angle in radians.
+   */
+  static double interpolateAngle(double[] timestamps, Rotation2d[] values, double timestamp) {
+    int upper = upperIndex(timestamps, timestamp);
+    if (upper == 0) {
+      return values[0].getRadians();
+    } else if (upper == timestamps.length) {
+      return values[timestamps.length - 1].getRadians();
+    }
+    double start = values[upper - 1].getRadians();
+    double difference = MathUtil.angleModulus(values[upper].getRadians() - start);
+    return start + difference * fraction(timestamps, upper, timestamp);
+  }
+
+  /**
+   * Returns the index of the sample closest to the requested time.
+   *
+   * @param timestamps Sample timestamps in ascending order, not empty.
+   * @param timestamp The time to search for in seconds.
+   */
+  static int nearestIndex(double[] timestamps, double timestamp) {
+    int upper = upperIndex(timestamps, timestamp);
+    if (upper == 0) {
+      return 0;
+    } else if (upper == timestamps.length) {
+      return upper - 1;
+    }
+    return timestamp - timestamps[upper - 1] <= timestamps[upper] - timestamp ? upper - 1 : upper;
+  }
+
+  /** Returns the index of the first sample after the timestamp, or the length if there is none. */
+  private static int upperIndex(double[] timestamps, double timestamp) {
+    int low = 0;
+    int high = timestamps.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (timestamps[mid] <= timestamp) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static double fraction(double[] timestamps, int upper, double timestamp) {
+    double span = timestamps[upper] - timestamps[upper - 1];
+    return span > 0.0 ? (timestamp - timestamps[upper - 1]) / span : 1.0;
+  }
+}
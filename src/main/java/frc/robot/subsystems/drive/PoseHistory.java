@@ -0,0 +1,171 @@
+// Copyright 2021-2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// version 3 as published by the Free Software Foundation or
+// available in the root directory of this project.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.MathUtil;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Circular buffer of recent pose estimates indexed by timestamp.
+ *
+ * <p>Poses are stored in primitive arrays and queried with a binary search, so lookups do not
+ * allocate. A single thread records poses in increasing time order, while any thread may query
+ * them. Readers detect entries overwritten during a query and retry, so neither side locks.
+ */
+public class PoseHistory {
+  private final int capacity;
+  private final double[] timestamps;
+  private final double[] xs;
+  private final double[] ys;
+  private final double[] thetas;
+
+  // Entries are indexed by monotonically increasing counters, the slot is (index % capacity)
+  private volatile long writeCount = 0;
+  private volatile long clearCount = 0; // Entries below this index are ignored
+
+  /**
+   * Creates a new pose history.
+   *
+   * @param capacity The number of poses to keep.
+   */
+  public PoseHistory(int capacity) {
+    this.capacity = capacity;
+    timestamps = new double[capacity];
+    xs = new double[capacity];
+    ys = new double[capacity];
+    thetas = new double[capacity];
+  }
+
+  /**
+   * Records a pose. Only called from the thread that owns the pose estimate. Poses that are not
+   * newer than the previous pose are ignored.
+   *
+   * @param timestamp The timestamp of the pose in seconds.
+   * @param x The X position in meters.
+   * @param y The Y position in meters.
+   * @param theta The rotation in radians.
+   */
+  public void addPose(double timestamp, double x, double y, double theta) {
+    long write = writeCount;
+    if (write > clearCount && timestamp <= timestamps[(int) ((write - 1) % capacity)]) {
+      return;
+    }
+    int slot = (int) (write % capacity);
+    timestamps[slot] = timestamp;
+    xs[slot] = x;
+    ys[slot] = y;
+    thetas[slot] = theta;
+    writeCount = write + 1; // Publish after the entry is complete
+  }
+
+  /**
+   * Discards all recorded poses, for example after the pose is reset. Only called from the thread
+   * that owns the pose estimate.
+   */
+  public void clear() {
+    clearCount = writeCount;
+  }
+
+  /**
+   * Interpolates the pose at the requested time. Times after the newest pose return the newest
+   * pose.
+   *
+   * @param timestamp The time to sample at in seconds.
+   * @param pose Output for the X position (meters), Y position (meters), and rotation (radians).
+   * @return False if the time is older than the history or no poses have been recorded.
+   */
+  public boolean getPoseAt(double timestamp, double[] pose) {
+    while (true) {
+      long end = writeCount;
+      long start = Math.max(clearCount, end - capacity + 1); // Oldest slot may be overwritten
+      if (end <= start) {
+        return false;
+      }
+      long upper = upperIndex(start, end, timestamp);
+      if (upper == start) {
+        return false;
+      }
+      int current = (int) ((upper - 1) % capacity);
+      if (upper == end) {
+        pose[0] = xs[current];
+        pose[1] = ys[current];
+        pose[2] = thetas[current];
+      } else {
+        int next = (int) (upper % capacity);
+        double t = (timestamp - timestamps[current]) / (timestamps[next] - timestamps[current]);
+        pose[0] = MathUtil.interpolate(xs[current], xs[next], t);
+        pose[1] = MathUtil.interpolate(ys[current], ys[next], t);
+        pose[2] =
+            MathUtil.angleModulus(
+                thetas[current] + MathUtil.angleModulus(thetas[next] - thetas[current]) * t);
+      }
+      if (isValid(start)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Estimates the field-relative velocity at the requested time from the poses on either side of
+   * it. Times after the newest pose use the two newest poses.
+   *
+   * @param timestamp The time to sample at in seconds.
+   * @param velocity Output for the X velocity (meters/sec), Y velocity (meters/sec), and angular
+   *     velocity (radians/sec).
+   * @return False if the time is older than the history or fewer than two poses were recorded.
+   */
+  public boolean getVelocityAt(double timestamp, double[] velocity) {
+    while (true) {
+      long end = writeCount;
+      long start = Math.max(clearCount, end - capacity + 1); // Oldest slot may be overwritten
+      if (end - start < 2) {
+        return false;
+      }
+      long upper = Math.min(upperIndex(start, end, timestamp), end - 1);
+      if (upper == start) {
+        return false;
+      }
+      int previous = (int) ((upper - 1) % capacity);
+      int next = (int) (upper % capacity);
+      double dt = timestamps[next] - timestamps[previous];
+      velocity[0] = (xs[next] - xs[previous]) / dt;
+      velocity[1] = (ys[next] - ys[previous]) / dt;
+      velocity[2] = MathUtil.angleModulus(thetas[next] - thetas[previous]) / dt;
+      if (isValid(start)) {
+        return true;
+      }
+    }
+  }
+
+  /** Returns the index of the first entry after the timestamp, or "end" if there is none. */
+  private long upperIndex(long start, long end, double timestamp) {
+    long low = start;
+    long high = end;
+    while (low < high) {
+      long mid = (low + high) >>> 1;
+      if (timestamps[(int) (mid % capacity)] <= timestamp) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /** Returns whether the entries from "oldest" onward were not overwritten while being searched. */
+  private boolean isValid(long oldest) {
+    VarHandle.acquireFence();
+    return oldest >= writeCount - capacity + 1;
+  }
+}
@@ -0,0 +1,254 @@
+// Copyright 2021-2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// version 3 as published by the Free Software Foundation or
+// available in the root directory of this project.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+
+package frc.robot.subsystems.drive;
+
+import static frc.robot.subsystems.drive.DriveConstants.*;
+
+import edu.wpi.first.math.Matrix;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.numbers.N1;
+import edu.wpi.first.math.numbers.N3;
+import frc.robot.util.VisionHelpers.TimestampedVisionUpdate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * Owns the drive pose estimators and integrates odometry samples into them.
+ *
+ * <p>Samples can be added either from the main loop or directly from the odometry thread. In the
+ * threaded case, vision measurements and resets from the main loop are queued and applied by the
+ * odometry thread before its next sample, so the estimators are only ever touched by one thread.
+ * The result of each update is published as an immutable {@link PoseSnapshot} that can be read
+ * from any thread without locking.
+ */
+public class PoseTracker {
+  /**
+   * Immutable pose estimate published after each update.
+   *
+   * @param timestamp The timestamp of the latest odometry sample in seconds.
+   * @param pose The pose estimate including vision measurements.
+   * @param odometryPose The pose estimate from odometry alone.
+   */
+  public record PoseSnapshot(double timestamp, Pose2d pose, Pose2d odometryPose) {}
+
+  private final boolean threaded;
+  private final Queue<Runnable> pendingUpdates = new ConcurrentLinkedQueue<>();
+  private volatile PoseSnapshot snapshot = new PoseSnapshot(0.0, new Pose2d(), new Pose2d());
+
+  private final double[] rotationKinematics = new double[8]; // Module deltas (x, y) to dtheta
+  private double rawGyroYaw = 0.0;
+  private final double[] lastModuleDistances = new double[4]; // For delta tracking
+  private final double[] lastModuleAngles = new double[4];
+
+  // Twice the estimator buffer duration, so samples never age out before the buffer is trimmed
+  private static final int estimatorCapacity = (int) Math.ceil(odometryFrequency * 3.0);
+  private final SwervePoseEstimator poseEstimator =
+      new SwervePoseEstimator(
+          moduleTranslations,
+          new double[] {stateStdDevs.get(0, 0), stateStdDevs.get(1, 0), stateStdDevs.get(2, 0)},
+          estimatorCapacity);
+  private final SwervePoseEstimator odometryDrive =
+      new SwervePoseEstimator(moduleTranslations, new double[] {0.0, 0.0, 0.0}, estimatorCapacity);
+  private final PoseHistory history =
+      new PoseHistory((int) Math.ceil(poseHistorySecs * odometryFrequency) + 1);
+  private boolean publishPending = false;
+  private double pendingTimestamp = 0.0;
+
+  /**
+   * Creates a new PoseTracker.
+   *
+   * @param threaded Whether samples are added from the odometry thread rather than the main loop.
+   */
+  public PoseTracker(boolean threaded) {
+    this.threaded = threaded;
+
+    // Rotation row of the least-squares forward kinematics, matching SwerveDriveKinematics
+    SimpleMatrix inverseKinematics = new SimpleMatrix(8, 3);
+    for (int i = 0; i < 4; i++) {
+      inverseKinematics.setRow(i * 2, 0, 1, 0, -moduleTranslations[i].getY());
+      inverseKinematics.setRow(i * 2 + 1, 0, 0, 1, moduleTranslations[i].getX());
+    }
+    SimpleMatrix forwardKinematics = inverseKinematics.pseudoInverse();
+    for (int i = 0; i < 8; i++) {
+      rotationKinematics[i] = forwardKinematics.get(2, i);
+    }
+  }
+
+  /**
+   * Integrates a single odometry sample. Must only be called from the thread that owns the
+   * estimators. The arrays are not retained, so callers can reuse them for every sample.
+   *
+   * @param timestamp The timestamp of the sample in seconds.
+   * @param moduleDistances The drive position of each module in meters.
+   * @param moduleAngles The turn angle of each module in radians.
+   * @param gyroYaw The gyro yaw in radians, or NaN if the gyro is disconnected.
+   */
+  public void addSample(
+      double timestamp, double[] moduleDistances, double[] moduleAngles, double gyroYaw) {
+    applyPendingUpdates();
+
+    // Update gyro angle
+    if (!Double.isNaN(gyroYaw)) {
+      // Use the real gyro angle
+      rawGyroYaw = gyroYaw;
+    } else {
+      // Use the angle delta from the kinematics and module deltas
+      double dtheta = 0.0;
+      for (int i = 0; i < 4; i++) {
+        double delta = moduleDistances[i] - lastModuleDistances[i];
+        dtheta += rotationKinematics[i * 2] * delta * Math.cos(moduleAngles[i]);
+        dtheta += rotationKinematics[i * 2 + 1] * delta * Math.sin(moduleAngles[i]);
+      }
+      rawGyroYaw += dtheta;
+    }
+    System.arraycopy(moduleDistances, 0, lastModuleDistances, 0, 4);
+    System.arraycopy(moduleAngles, 0, lastModuleAngles, 0, 4);
+
+    // Apply update
+    poseEstimator.update(timestamp, rawGyroYaw, moduleDistances, moduleAngles);
+    odometryDrive.update(timestamp, rawGyroYaw, moduleDistances, moduleAngles);
+    history.addPose(
+        timestamp, poseEstimator.getX(), poseEstimator.getY(), poseEstimator.getTheta());
+    if (threaded) {
+      publish(timestamp);
+    } else {
+      // Samples are added in batches on the main loop, so publish once when the snapshot is read
+      publishPending = true;
+      pendingTimestamp = timestamp;
+    }
+  }
+
+  /**
+   * Adds a vision measurement to the pose estimator.
+   *
+   * @param visionPose The pose of the robot as measured by the vision camera.
+   * @param timestamp The timestamp of the vision measurement in seconds.
+   * @param visionMeasurementStdDevs Standard deviations of the measurement.
+   */
+  public void addVisionMeasurement(
+      Pose2d visionPose, double timestamp, Matrix<N3, N1> visionMeasurementStdDevs) {
+    runOnOwner(
+        () -> {
+          applyVisionMeasurement(visionPose, timestamp, visionMeasurementStdDevs);
+          publish(publishPending ? pendingTimestamp : snapshot.timestamp());
+        });
+  }
+
+  /**
+   * Adds a batch of vision measurements to the pose estimator. The measurements are applied in
+   * timestamp order, so odometry is only replayed once from the oldest measurement rather than
+   * once per measurement.
+   *
+   * @param visionUpdates The measurements to add, in any order. The list is not retained.
+   */
+  public void addVisionMeasurements(List<TimestampedVisionUpdate> visionUpdates) {
+    if (visionUpdates.isEmpty()) {
+      return;
+    }
+    List<TimestampedVisionUpdate> sorted = new ArrayList<>(visionUpdates);
+    sorted.sort(Comparator.comparingDouble(TimestampedVisionUpdate::timestamp));
+    runOnOwner(
+        () -> {
+          for (TimestampedVisionUpdate update : sorted) {
+            applyVisionMeasurement(update.pose(), update.timestamp(), update.stdDevs());
+          }
+          publish(publishPending ? pendingTimestamp : snapshot.timestamp());
+        });
+  }
+
+  /**
+   * Resets the pose estimate, keeping the current gyro rotation and module positions as the new
+   * reference for odometry deltas.
+   *
+   * @param pose The pose to reset to.
+   * @param resetOdometry Whether to also reset the odometry-only pose.
+   */
+  public void resetPose(Pose2d pose, boolean resetOdometry) {
+    runOnOwner(
+        () -> {
+          poseEstimator.resetPosition(
+              rawGyroYaw,
+              lastModuleDistances,
+              lastModuleAngles,
+              pose.getX(),
+              pose.getY(),
+              pose.getRotation().getRadians());
+          if (resetOdometry) {
+            odometryDrive.resetPosition(
+                rawGyroYaw,
+                lastModuleDistances,
+                lastModuleAngles,
+                pose.getX(),
+                pose.getY(),
+                pose.getRotation().getRadians());
+          }
+          history.clear();
+          publish(publishPending ? pendingTimestamp : snapshot.timestamp());
+        });
+  }
+
+  /**
+   * Returns the latest published snapshot. Safe to call from any thread when samples are added
+   * from the odometry thread, otherwise only from the main loop.
+   */
+  public PoseSnapshot getSnapshot() {
+    if (publishPending) {
+      publish(pendingTimestamp);
+    }
+    return snapshot;
+  }
+
+  /** Returns the history of pose estimates. Safe to query from any thread. */
+  public PoseHistory getHistory() {
+    return history;
+  }
+
+  private void applyVisionMeasurement(
+      Pose2d visionPose, double timestamp, Matrix<N3, N1> visionMeasurementStdDevs) {
+    poseEstimator.addVisionMeasurement(
+        timestamp,
+        visionPose.getX(),
+        visionPose.getY(),
+        visionPose.getRotation().getRadians(),
+        visionMeasurementStdDevs.get(0, 0),
+        visionMeasurementStdDevs.get(1, 0),
+        visionMeasurementStdDevs.get(2, 0));
+  }
+
+  private void runOnOwner(Runnable update) {
+    if (threaded) {
+      pendingUpdates.add(update);
+    } else {
+      update.run();
+    }
+  }
+
+  private void applyPendingUpdates() {
+    Runnable update;
+    while ((update = pendingUpdates.poll()) != null) {
+      update.run();
+    }
+  }
+
+  private void publish(double timestamp) {
+    publishPending = false;
+    snapshot =
+        new PoseSnapshot(
+            timestamp, poseEstimator.getEstimatedPosition(), odometryDrive.getEstimatedPosition());
+  }
+}
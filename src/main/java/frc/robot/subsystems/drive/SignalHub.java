@@ -0,0 +1,201 @@
+// Copyright 2021-2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// version 3 as published by the Free Software Foundation or
+// available in the root directory of this project.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+
+package frc.robot.subsystems.drive;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.CANBus;
+import com.ctre.phoenix6.Timestamp;
+import com.ctre.phoenix6.hardware.ParentDevice;
+import java.lang.invoke.VarHandle;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.function.Supplier;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Single registration point for high-frequency signals from any vendor.
+ *
+ * <p>Phoenix 6 status signals, REV suppliers, and values pushed from callbacks (e.g. NavX) are
+ * registered here and returned as {@link OdometryChannel}s. One {@link SignalScheduler} runs per
+ * CAN bus, and every sample is stamped on the FPGA timebase, so a robot mixing hardware gets
+ * samples that can be aligned by time rather than separate queues matched by index.
+ */
+public class SignalHub {
+  /** Name of the bus for devices attached directly to the roboRIO. */
+  public static final String rioBus = "rio";
+
+  private final Map<String, SignalScheduler> schedulers = new LinkedHashMap<>();
+  private boolean started = false;
+
+  private static SignalHub instance = null;
+
+  public static synchronized SignalHub getInstance() {
+    if (instance == null) {
+      instance = new SignalHub();
+    }
+    return instance;
+  }
+
+  private SignalHub() {}
+
+  /**
+   * Registers a set of Phoenix 6 signals that are sampled together. Each signal is timestamped
+   * using the latency of its best available timestamp (CANivore or device time when supported).
+   *
+   * @param device The device used to find the CAN bus of the signals.
+   * @param signals The signals to sample.
+   * @return The channel that receives the samples, in the order provided.
+   */
+  public synchronized OdometryChannel registerPhoenix(
+      ParentDevice device, BaseStatusSignal... signals) {
+    SignalScheduler.SignalSource[] sources = new SignalScheduler.SignalSource[signals.length];
+    for (int i = 0; i < signals.length; i++) {
+      BaseStatusSignal signal = signals[i];
+      sources[i] =
+          (now, timestamps, values, index) -> {
+            Timestamp timestamp = signal.getTimestamps().getBestTimestamp();
+            timestamps[index] = timestamp.isValid() ? now - timestamp.getLatency() : now;
+            values[index] = signal.getValueAsDouble();
+            return true;
+          };
+    }
+    String network = device.getNetwork();
+    String bus = network.isEmpty() || network.equals(rioBus) ? rioBus : network;
+    return getScheduler(bus).register(signals, sources);
+  }
+
+  /**
+   * Registers a set of polled signals on the roboRIO CAN bus, such as REV encoder positions. All
+   * signals are timestamped when polled.
+   *
+   * @param signals The signals to sample, returning empty if the current value is invalid.
+   * @return The channel that receives the samples, in the order provided.
+   */
+  @SafeVarargs
+  public final synchronized OdometryChannel registerPolled(Supplier<OptionalDouble>... signals) {
+    SignalScheduler.SignalSource[] sources = new SignalScheduler.SignalSource[signals.length];
+    for (int i = 0; i < signals.length; i++) {
+      Supplier<OptionalDouble> signal = signals[i];
+      sources[i] =
+          (now, timestamps, values, index) -> {
+            OptionalDouble value = signal.get();
+            timestamps[index] = now;
+            values[index] = value.orElse(0.0);
+            return value.isPresent();
+          };
+    }
+    return getScheduler(rioBus).register(new BaseStatusSignal[0], sources);
+  }
+
+  /**
+   * Registers a set of signals whose values are pushed from device callbacks, such as the NavX
+   * data callback. The newest pushed value is sampled on the roboRIO bus scheduler, keeping the
+   * timestamp of when it was pushed.
+   *
+   * @param signals The signals to sample.
+   * @return The channel that receives the samples, in the order provided.
+   */
+  public synchronized OdometryChannel registerPushed(PushedSignal... signals) {
+    return getScheduler(rioBus).register(new BaseStatusSignal[0], signals.clone());
+  }
+
+  /**
+   * Stops sampling a channel, e.g. for a device that was replaced by a fallback after it
+   * registered. Does nothing if the channel is not registered.
+   *
+   * @param channel A channel returned by one of the register methods.
+   */
+  public synchronized void unregister(OdometryChannel channel) {
+    for (SignalScheduler scheduler : schedulers.values()) {
+      scheduler.unregister(channel);
+    }
+  }
+
+  /**
+   * Adds a listener that is run after each sample on the scheduler with the most signals, which is
+   * the one sampling the drive modules. Listeners must be fast since they delay the next sample.
+   */
+  public synchronized void addSampleListener(Runnable listener) {
+    SignalScheduler primary = null;
+    for (SignalScheduler scheduler : schedulers.values()) {
+      if (primary == null || scheduler.getSignalCount() > primary.getSignalCount()) {
+        primary = scheduler;
+      }
+    }
+    if (primary != null) {
+      primary.addSampleListener(listener);
+    }
+  }
+
+  /** Starts every scheduler. Signals must be registered first. */
+  public synchronized void start() {
+    if (started) {
+      return;
+    }
+    started = true;
+    for (SignalScheduler scheduler : schedulers.values()) {
+      scheduler.start();
+    }
+  }
+
+  private SignalScheduler getScheduler(String bus) {
+    if (started) {
+      throw new IllegalStateException("Signals must be registered before the SignalHub starts");
+    }
+    return schedulers.computeIfAbsent(
+        bus, name -> new SignalScheduler(name, !name.equals(rioBus) && CANBus.isNetworkFD(name)));
+  }
+
+  /**
+   * A signal whose value is pushed from another thread, such as a vendor callback. Only the newest
+   * value is kept until the scheduler samples it.
+   */
+  public static class PushedSignal implements SignalScheduler.SignalSource {
+    private double timestamp = 0.0;
+    private double value = 0.0;
+    private volatile long version = 0; // Odd while being written
+
+    /**
+     * Stores a new value, timestamped with the current FPGA time. Only called from one thread.
+     *
+     * @param value The new value.
+     */
+    public void push(double value) {
+      long current = version;
+      version = current + 1;
+      VarHandle.releaseFence();
+      this.timestamp = Logger.getRealTimestamp() / 1e6;
+      this.value = value;
+      version = current + 2;
+    }
+
+    @Override
+    public boolean read(double now, double[] timestamps, double[] values, int index) {
+      while (true) {
+        long current = version;
+        if (current == 0) {
+          return false; // Nothing pushed yet
+        }
+        timestamps[index] = timestamp;
+        values[index] = value;
+        VarHandle.acquireFence();
+        if ((current & 1) == 0 && current == version) {
+          return true;
+        }
+        Thread.onSpinWait(); // Writer was pushing, try again
+      }
+    }
+  }
+}
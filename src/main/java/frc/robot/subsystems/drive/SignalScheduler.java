@@ -0,0 +1,289 @@
+// Copyright 2021-2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// version 3 as published by the Free Software Foundation or
+// available in the root directory of this project.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+
+package frc.robot.subsystems.drive;
+
+import static frc.robot.subsystems.drive.DriveConstants.*;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.StatusCode;
+import edu.wpi.first.wpilibj.Notifier;
+import frc.robot.util.StatusSignalRegistry;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Samples every high-frequency signal on one CAN bus and writes them to a set of channels.
+ *
+ * <p>On a CAN FD bus with only Phoenix 6 signals, a dedicated thread blocks on "waitForAll" so that
+ * samples follow the devices' own timing. Otherwise a Notifier polls at the odometry frequency,
+ * refreshing Phoenix signals and reading REV and pushed signals. Either way, every signal is
+ * stamped on the FPGA timebase so that samples from different buses can be aligned by time. A
+ * sample where every signal still has the timestamp of the previous sample is not published, since
+ * the odometry signals may update slower than the Notifier polls (their frequency depends on the
+ * {@link StatusSignalRegistry} phase). Schedulers are created and started by {@link SignalHub}.
+ */
+public class SignalScheduler {
+  /**
+   * Reads one signal into a frame.
+   *
+   * <p>Implementations are called from the scheduler thread and must not block.
+   */
+  @FunctionalInterface
+  interface SignalSource {
+    /**
+     * Reads the signal.
+     *
+     * @param now The current FPGA time in seconds.
+     * @param timestamps Output for the time the value was measured, in FPGA seconds.
+     * @param values Output for the value.
+     * @param index Index to write to in "timestamps" and "values".
+     * @return False if the value is invalid.
+     */
+    boolean read(double now, double[] timestamps, double[] values, int index);
+  }
+
+  /** Immutable set of registered signals, replaced as a whole so the thread never needs a lock. */
+  private record Registration(
+      BaseStatusSignal[] phoenixSignals,
+      SignalSource[] sources,
+      OdometryChannel[] channels,
+      int[] channelOffsets) {}
+
+  private static final int channelCapacity = 20;
+  // Periods of the odometry signals allowed for a wait, so one disconnected device only costs a
+  // couple of samples. The period is read from the current phase before every wait.
+  private static final double waitTimeoutPeriods = 2.0;
+
+  private final String name;
+  private final boolean isCANFD;
+  private final OdometryFence fence;
+  private final StatusSignalRegistry signalRegistry = StatusSignalRegistry.getInstance();
+  private volatile Registration registration =
+      new Registration(
+          new BaseStatusSignal[0], new SignalSource[0], new OdometryChannel[0], new int[0]);
+  private volatile Runnable[] sampleListeners = new Runnable[0];
+  private final Map<OdometryChannel, BaseStatusSignal[]> channelPhoenixSignals =
+      new HashMap<>(); // Guarded by "this"
+
+  // Only used by the scheduler thread
+  private double[] timestamps = new double[0];
+  private double[] values = new double[0];
+  private boolean[] valid = new boolean[0];
+  private double[] lastTimestamps = new double[0];
+  private long sequence = 0;
+  private long lastWakeNanos = 0;
+
+  SignalScheduler(String name, boolean isCANFD) {
+    this.name = name;
+    this.isCANFD = isCANFD;
+    fence = new OdometryFence(name);
+  }
+
+  /** Returns the name of the CAN bus sampled by this scheduler. */
+  public String getName() {
+    return name;
+  }
+
+  /** Returns the number of registered signals. */
+  public int getSignalCount() {
+    return registration.sources().length;
+  }
+
+  /**
+   * Adds a listener that is run on the scheduler thread after each sample is published to the
+   * channels. Listeners must be fast since they delay the next sample.
+   */
+  public synchronized void addSampleListener(Runnable listener) {
+    Runnable[] newListeners = Arrays.copyOf(sampleListeners, sampleListeners.length + 1);
+    newListeners[sampleListeners.length] = listener;
+    sampleListeners = newListeners;
+  }
+
+  /**
+   * Registers a set of signals that are sampled together. Each frame in the returned channel holds
+   * the timestamp and value of each signal in the order provided.
+   *
+   * @param phoenixSignals Phoenix signals to refresh before reading the sources, which must be
+   *     included in "sources".
+   * @param sources The signals to sample.
+   * @return The channel that receives the samples.
+   */
+  synchronized OdometryChannel register(
+      BaseStatusSignal[] phoenixSignals, SignalSource[] sources) {
+    OdometryChannel channel =
+        new OdometryChannel(fence, sources.length, channelCapacity, odometryOverflowPolicy);
+    Registration old = registration;
+    int signalCount = old.sources().length;
+    int channelCount = old.channels().length;
+
+    BaseStatusSignal[] newPhoenixSignals =
+        Arrays.copyOf(old.phoenixSignals(), old.phoenixSignals().length + phoenixSignals.length);
+    System.arraycopy(
+        phoenixSignals, 0, newPhoenixSignals, old.phoenixSignals().length, phoenixSignals.length);
+    SignalSource[] newSources = Arrays.copyOf(old.sources(), signalCount + sources.length);
+    System.arraycopy(sources, 0, newSources, signalCount, sources.length);
+    OdometryChannel[] newChannels = Arrays.copyOf(old.channels(), channelCount + 1);
+    newChannels[channelCount] = channel;
+    int[] newOffsets = Arrays.copyOf(old.channelOffsets(), channelCount + 1);
+    newOffsets[channelCount] = signalCount;
+
+    registration = new Registration(newPhoenixSignals, newSources, newChannels, newOffsets);
+    channelPhoenixSignals.put(channel, phoenixSignals.clone());
+    return channel;
+  }
+
+  /**
+   * Stops sampling the signals of a channel, e.g. for a device that was replaced after it
+   * registered. Its Phoenix signals are no longer waited on, so they cannot stall the bus.
+   *
+   * @param channel A channel returned by {@link #register(BaseStatusSignal[], SignalSource[])}.
+   */
+  synchronized void unregister(OdometryChannel channel) {
+    BaseStatusSignal[] removedSignals = channelPhoenixSignals.remove(channel);
+    if (removedSignals == null) {
+      return;
+    }
+    Registration old = registration;
+    int removedIndex = Arrays.asList(old.channels()).indexOf(channel);
+    int removedOffset = old.channelOffsets()[removedIndex];
+    int removedWidth = channel.getWidth();
+
+    OdometryChannel[] newChannels = new OdometryChannel[old.channels().length - 1];
+    int[] newOffsets = new int[newChannels.length];
+    for (int i = 0, j = 0; i < old.channels().length; i++) {
+      if (i != removedIndex) {
+        newChannels[j] = old.channels()[i];
+        newOffsets[j] = old.channelOffsets()[i] - (i > removedIndex ? removedWidth : 0);
+        j++;
+      }
+    }
+    SignalSource[] newSources = new SignalSource[old.sources().length - removedWidth];
+    System.arraycopy(old.sources(), 0, newSources, 0, removedOffset);
+    System.arraycopy(
+        old.sources(),
+        removedOffset + removedWidth,
+        newSources,
+        removedOffset,
+        newSources.length - removedOffset);
+    var removed = Arrays.asList(removedSignals);
+    BaseStatusSignal[] newPhoenixSignals =
+        Arrays.stream(old.phoenixSignals())
+            .filter(signal -> !removed.contains(signal))
+            .toArray(BaseStatusSignal[]::new);
+
+    registration = new Registration(newPhoenixSignals, newSources, newChannels, newOffsets);
+  }
+
+  /** Starts sampling. Does nothing if no signals have been registered. */
+  synchronized void start() {
+    Registration current = registration;
+    if (current.channels().length == 0) {
+      return;
+    }
+    if (isCANFD && current.phoenixSignals().length == current.sources().length) {
+      Thread thread = new Thread(this::runBlocking, name + "SignalScheduler");
+      thread.setDaemon(true);
+      thread.start();
+    } else {
+      Notifier notifier = new Notifier(this::poll);
+      notifier.setName(name + "SignalScheduler");
+      notifier.startPeriodic(1.0 / odometryFrequency);
+    }
+  }
+
+  private void runBlocking() {
+    while (true) {
+      Registration current = registration;
+      double timeoutSecs = waitTimeoutPeriods / signalRegistry.getOdometryFrequency();
+      StatusCode status = BaseStatusSignal.waitForAll(timeoutSecs, current.phoenixSignals());
+      sample(current, status, false);
+    }
+  }
+
+  private void poll() {
+    Registration current = registration;
+    StatusCode status =
+        current.phoenixSignals().length > 0
+            ? BaseStatusSignal.refreshAll(current.phoenixSignals())
+            : StatusCode.OK;
+    sample(current, status, true);
+  }
+
+  private void sample(Registration current, StatusCode status, boolean polling) {
+    long wakeNanos = System.nanoTime();
+    double now = Logger.getRealTimestamp() / 1e6;
+    SignalSource[] sources = current.sources();
+    if (values.length != sources.length) {
+      timestamps = new double[sources.length];
+      values = new double[sources.length];
+      valid = new boolean[sources.length];
+      lastTimestamps = new double[sources.length];
+    }
+
+    // Read every signal, tracking how stale the newest one is
+    double minLatency = sources.length > 0 ? Double.POSITIVE_INFINITY : 0.0;
+    for (int i = 0; i < sources.length; i++) {
+      valid[i] = sources[i].read(now, timestamps, values, i);
+      if (valid[i]) {
+        minLatency = Math.min(minLatency, now - timestamps[i]);
+      }
+    }
+    if (!status.isOK()) {
+      fence.recordInvalid();
+    }
+
+    // Skip frames that were already published, so channels never receive duplicate samples
+    if (sources.length > 0 && Arrays.equals(timestamps, lastTimestamps)) {
+      lastWakeNanos = wakeNanos;
+      return;
+    }
+    System.arraycopy(timestamps, 0, lastTimestamps, 0, sources.length);
+
+    // Save new data to channels, skipping channels with invalid signals, then publish the sample
+    OdometryChannel[] channels = current.channels();
+    int[] channelOffsets = current.channelOffsets();
+    for (int i = 0; i < channels.length; i++) {
+      boolean channelValid = true;
+      for (int j = channelOffsets[i]; j < channelOffsets[i] + channels[i].getWidth(); j++) {
+        channelValid &= valid[j];
+      }
+      if (!channelValid) {
+        fence.recordInvalid();
+      } else if (!channels[i].offer(sequence, timestamps, values, channelOffsets[i])) {
+        fence.recordDropped();
+      }
+    }
+    sequence++;
+    fence.publish(sequence);
+
+    // Polling wakes on a fixed period, so measure how late the Notifier ran instead
+    long wakeLatencyNanos;
+    if (polling) {
+      wakeLatencyNanos =
+          lastWakeNanos != 0
+              ? Math.max(wakeNanos - lastWakeNanos - (long) (1e9 / odometryFrequency), 0)
+              : 0;
+    } else {
+      wakeLatencyNanos = Double.isFinite(minLatency) ? (long) (minLatency * 1e9) : 0;
+    }
+    lastWakeNanos = wakeNanos;
+    fence.recordSample(wakeNanos, wakeLatencyNanos, System.nanoTime() - wakeNanos);
+
+    for (Runnable listener : sampleListeners) {
+      listener.run();
+    }
+  }
+}
@@ -0,0 +1,450 @@
+// Copyright 2021-2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// version 3 as published by the Free Software Foundation or
+// available in the root directory of this project.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+
+package frc.robot.subsystems.drive;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * Swerve pose estimator with the same behavior as WPILib's SwerveDrivePoseEstimator, implemented
+ * with primitive arrays.
+ *
+ * <p>Odometry samples are integrated exactly like SwerveDriveOdometry and recorded in a circular
+ * history. A vision measurement corrects the pose at its timestamp using the closed-form Kalman
+ * gain for a diagonal covariance, k = q / (q + sqrt(q * r)) per axis. Rather than immediately
+ * replaying every later sample, the history is marked stale from the measurement onward and only
+ * re-integrated when a newer pose is needed. Several measurements added in time order therefore
+ * cost a single replay from the oldest one.
+ *
+ * <p>Not thread-safe, all methods must be called from the thread that owns the estimator.
+ */
+public class SwervePoseEstimator {
+  private static final double bufferDurationSecs = 1.5;
+
+  private final int moduleCount;
+  private final double[] forwardKinematics; // Row-major 3 x (2 * moduleCount)
+  private final double[] q = new double[3];
+
+  // History, indexed by monotonically increasing counters, the slot is (index % capacity)
+  private final int capacity;
+  private final double[] timestamps;
+  private final double[] poses; // x, y, theta per entry
+  private final double[] gyroAngles;
+  private final double[] moduleDistances; // moduleCount per entry
+  private final double[] moduleAngles; // moduleCount per entry
+  private long start = 0;
+  private long end = 0;
+  private long replayIndex = 0; // Poses at or after this index are stale
+
+  // Odometry state, matching the newest entry before "replayIndex"
+  private final double[] pose = new double[3];
+  private double gyroOffset = 0.0;
+  private double previousAngle = 0.0;
+  private final double[] previousDistances;
+
+  // Scratch space, never retained
+  private final double[] sampleDistances;
+  private final double[] sampleAngles;
+  private final double[] samplePose = new double[3];
+  private final double[] twist = new double[3];
+  private Pose2d cachedPose = new Pose2d();
+
+  /**
+   * Creates a new estimator.
+   *
+   * @param moduleTranslations The location of each module relative to the robot center.
+   * @param stateStdDevs Standard deviations of the odometry pose estimate (x meters, y meters,
+   *     theta radians).
+   * @param capacity The maximum number of odometry samples to keep, which should cover at least
+   *     1.5 seconds of samples.
+   */
+  public SwervePoseEstimator(
+      Translation2d[] moduleTranslations, double[] stateStdDevs, int capacity) {
+    moduleCount = moduleTranslations.length;
+    this.capacity = capacity;
+    timestamps = new double[capacity];
+    poses = new double[capacity * 3];
+    gyroAngles = new double[capacity];
+    moduleDistances = new double[capacity * moduleCount];
+    moduleAngles = new double[capacity * moduleCount];
+    previousDistances = new double[moduleCount];
+    sampleDistances = new double[moduleCount];
+    sampleAngles = new double[moduleCount];
+    for (int i = 0; i < 3; i++) {
+      q[i] = stateStdDevs[i] * stateStdDevs[i];
+    }
+
+    // Least-squares forward kinematics, matching SwerveDriveKinematics
+    SimpleMatrix inverseKinematics = new SimpleMatrix(moduleCount * 2, 3);
+    for (int i = 0; i < moduleCount; i++) {
+      inverseKinematics.setRow(i * 2, 0, 1, 0, -moduleTranslations[i].getY());
+      inverseKinematics.setRow(i * 2 + 1, 0, 0, 1, moduleTranslations[i].getX());
+    }
+    SimpleMatrix pseudoInverse = inverseKinematics.pseudoInverse();
+    forwardKinematics = new double[3 * moduleCount * 2];
+    for (int row = 0; row < 3; row++) {
+      for (int column = 0; column < moduleCount * 2; column++) {
+        forwardKinematics[row * moduleCount * 2 + column] = pseudoInverse.get(row, column);
+      }
+    }
+  }
+
+  /**
+   * Resets the pose and clears the history.
+   *
+   * @param gyroAngle The current gyro angle in radians.
+   * @param distances The current drive position of each module in meters.
+   * @param angles The current turn angle of each module in radians.
+   * @param x The X position to reset to in meters.
+   * @param y The Y position to reset to in meters.
+   * @param theta The rotation to reset to in radians.
+   */
+  public void resetPosition(
+      double gyroAngle, double[] distances, double[] angles, double x, double y, double theta) {
+    start = end;
+    replayIndex = end;
+    resetOdometry(gyroAngle, distances, 0, x, y, theta);
+  }
+
+  /**
+   * Integrates an odometry sample.
+   *
+   * @param timestamp The timestamp of the sample in seconds.
+   * @param gyroAngle The gyro angle in radians.
+   * @param distances The drive position of each module in meters.
+   * @param angles The turn angle of each module in radians.
+   */
+  public void update(double timestamp, double gyroAngle, double[] distances, double[] angles) {
+    replay();
+    integrate(gyroAngle, distances, angles, 0);
+
+    // Record the sample, discarding entries that are full or too old to correct
+    if (end - start == capacity) {
+      start++;
+    }
+    int slot = (int) (end % capacity);
+    timestamps[slot] = timestamp;
+    gyroAngles[slot] = gyroAngle;
+    System.arraycopy(pose, 0, poses, slot * 3, 3);
+    System.arraycopy(distances, 0, moduleDistances, slot * moduleCount, moduleCount);
+    System.arraycopy(angles, 0, moduleAngles, slot * moduleCount, moduleCount);
+    end++;
+    replayIndex = end;
+    while (timestamps[(int) (start % capacity)] < timestamp - bufferDurationSecs) {
+      start++;
+    }
+  }
+
+  /**
+   * Adds a vision measurement, correcting the pose at the measurement's timestamp. Later samples
+   * are re-integrated lazily, so measurements should be added in time order when possible. A
+   * measurement newer than the newest sample corrects the current pose without being recorded.
+   *
+   * @param timestamp The timestamp of the measurement in seconds.
+   * @param x The measured X position in meters.
+   * @param y The measured Y position in meters.
+   * @param theta The measured rotation in radians.
+   * @param xStdDev Standard deviation of the X position in meters.
+   * @param yStdDev Standard deviation of the Y position in meters.
+   * @param thetaStdDev Standard deviation of the rotation in radians.
+   */
+  public void addVisionMeasurement(
+      double timestamp,
+      double x,
+      double y,
+      double theta,
+      double xStdDev,
+      double yStdDev,
+      double thetaStdDev) {
+    if (end == start || timestamp < timestamps[(int) ((end - 1) % capacity)] - bufferDurationSecs) {
+      return;
+    }
+
+    // A measurement newer than every sample (e.g. when odometry lags the main loop) only corrects
+    // the current pose. Recording it would put a later timestamp before the next sample.
+    if (timestamp > timestamps[(int) ((end - 1) % capacity)]) {
+      replay();
+      log(pose, x, y, theta, twist);
+      twist[0] *= gain(q[0], xStdDev);
+      twist[1] *= gain(q[1], yStdDev);
+      twist[2] *= gain(q[2], thetaStdDev);
+      exp(pose, twist, samplePose);
+      int newest = (int) ((end - 1) % capacity);
+      resetOdometry(
+          gyroAngles[newest],
+          moduleDistances,
+          newest * moduleCount,
+          samplePose[0],
+          samplePose[1],
+          samplePose[2]);
+      return;
+    }
+
+    // Sample the history at the measurement, which needs both neighbors to be up to date
+    long upper = upperIndex(timestamp);
+    replay(Math.min(upper + 1, end));
+    double sampleGyro = sampleHistory(upper, timestamp);
+
+    // Scale the correction from the sampled pose to the measurement by the Kalman gain
+    log(samplePose, x, y, theta, twist);
+    twist[0] *= gain(q[0], xStdDev);
+    twist[1] *= gain(q[1], yStdDev);
+    twist[2] *= gain(q[2], thetaStdDev);
+    exp(samplePose, twist, samplePose);
+
+    // Record the corrected pose, replacing an entry with the same timestamp
+    long index;
+    if (upper > start && timestamps[(int) ((upper - 1) % capacity)] == timestamp) {
+      index = upper - 1;
+    } else {
+      if (end - start == capacity) {
+        start++;
+        upper = Math.max(upper, start);
+      }
+      for (long i = end; i > upper; i--) {
+        copyEntry(i - 1, i);
+      }
+      end++;
+      index = upper;
+    }
+    int slot = (int) (index % capacity);
+    timestamps[slot] = timestamp;
+    gyroAngles[slot] = sampleGyro;
+    System.arraycopy(samplePose, 0, poses, slot * 3, 3);
+    System.arraycopy(sampleDistances, 0, moduleDistances, slot * moduleCount, moduleCount);
+    System.arraycopy(sampleAngles, 0, moduleAngles, slot * moduleCount, moduleCount);
+
+    // Later poses are stale until replayed from the corrected pose
+    resetOdometry(sampleGyro, sampleDistances, 0, samplePose[0], samplePose[1], samplePose[2]);
+    replayIndex = index + 1;
+  }
+
+  /** Returns the X position of the current estimate in meters. */
+  public double getX() {
+    replay();
+    return pose[0];
+  }
+
+  /** Returns the Y position of the current estimate in meters. */
+  public double getY() {
+    replay();
+    return pose[1];
+  }
+
+  /** Returns the rotation of the current estimate in radians. */
+  public double getTheta() {
+    replay();
+    return pose[2];
+  }
+
+  /** Returns the current estimate. Only allocates when the estimate has changed. */
+  public Pose2d getEstimatedPosition() {
+    replay();
+    if (cachedPose.getX() != pose[0]
+        || cachedPose.getY() != pose[1]
+        || cachedPose.getRotation().getRadians() != pose[2]) {
+      cachedPose = new Pose2d(pose[0], pose[1], new Rotation2d(pose[2]));
+    }
+    return cachedPose;
+  }
+
+  /** Re-integrates every stale entry. */
+  private void replay() {
+    replay(end);
+  }
+
+  /** Re-integrates stale entries up to, but not including, the provided index. */
+  private void replay(long until) {
+    while (replayIndex < until) {
+      int slot = (int) (replayIndex % capacity);
+      integrate(gyroAngles[slot], moduleDistances, moduleAngles, slot * moduleCount);
+      System.arraycopy(pose, 0, poses, slot * 3, 3);
+      replayIndex++;
+    }
+  }
+
+  /**
+   * Integrates one odometry sample into the current pose, matching SwerveDriveOdometry.
+   *
+   * @param gyroAngle The raw gyro angle in radians.
+   * @param distances Array containing the drive position of each module.
+   * @param angles Array containing the turn angle of each module.
+   * @param offset Index of the first module in "distances" and "angles".
+   */
+  private void integrate(double gyroAngle, double[] distances, double[] angles, int offset) {
+    // Convert wheel deltas to a chassis twist, using the rotation measured by the gyro
+    double dx = 0.0;
+    double dy = 0.0;
+    int columns = moduleCount * 2;
+    for (int i = 0; i < moduleCount; i++) {
+      double delta = distances[offset + i] - previousDistances[i];
+      double deltaX = delta * Math.cos(angles[offset + i]);
+      double deltaY = delta * Math.sin(angles[offset + i]);
+      dx += forwardKinematics[i * 2] * deltaX + forwardKinematics[i * 2 + 1] * deltaY;
+      dy +=
+          forwardKinematics[columns + i * 2] * deltaX
+              + forwardKinematics[columns + i * 2 + 1] * deltaY;
+      previousDistances[i] = distances[offset + i];
+    }
+    double angle = MathUtil.angleModulus(gyroAngle + gyroOffset);
+    twist[0] = dx;
+    twist[1] = dy;
+    twist[2] = MathUtil.angleModulus(angle - previousAngle);
+    exp(pose, twist, pose);
+    pose[2] = angle;
+    previousAngle = angle;
+  }
+
+  private void resetOdometry(
+      double gyroAngle, double[] distances, int offset, double x, double y, double theta) {
+    pose[0] = x;
+    pose[1] = y;
+    pose[2] = MathUtil.angleModulus(theta);
+    gyroOffset = theta - gyroAngle;
+    previousAngle = pose[2];
+    System.arraycopy(distances, offset, previousDistances, 0, moduleCount);
+  }
+
+  /**
+   * Interpolates the history at a timestamp into the sample arrays, clamping outside of the
+   * recorded range. All entries up to and including "upper" must be up to date.
+   *
+   * @param upper The index of the first entry after the timestamp.
+   * @param timestamp The time to sample at in seconds.
+   * @return The interpolated gyro angle in radians.
+   */
+  private double sampleHistory(long upper, double timestamp) {
+    if (upper == start || upper == end) {
+      int slot = (int) ((upper == start ? start : end - 1) % capacity);
+      System.arraycopy(poses, slot * 3, samplePose, 0, 3);
+      System.arraycopy(moduleDistances, slot * moduleCount, sampleDistances, 0, moduleCount);
+      System.arraycopy(moduleAngles, slot * moduleCount, sampleAngles, 0, moduleCount);
+      return gyroAngles[slot];
+    }
+
+    int previous = (int) ((upper - 1) % capacity);
+    int next = (int) (upper % capacity);
+    double t = (timestamp - timestamps[previous]) / (timestamps[next] - timestamps[previous]);
+
+    // Poses are interpolated along the twist between them, matching Pose2d.interpolate
+    log(poses, previous * 3, poses[next * 3], poses[next * 3 + 1], poses[next * 3 + 2], twist);
+    twist[0] *= t;
+    twist[1] *= t;
+    twist[2] *= t;
+    System.arraycopy(poses, previous * 3, samplePose, 0, 3);
+    exp(samplePose, twist, samplePose);
+
+    for (int i = 0; i < moduleCount; i++) {
+      int previousModule = previous * moduleCount + i;
+      int nextModule = next * moduleCount + i;
+      sampleDistances[i] =
+          MathUtil.interpolate(moduleDistances[previousModule], moduleDistances[nextModule], t);
+      sampleAngles[i] = interpolateAngle(moduleAngles[previousModule], moduleAngles[nextModule], t);
+    }
+    return interpolateAngle(gyroAngles[previous], gyroAngles[next], t);
+  }
+
+  /** Returns the index of the first entry after the timestamp, or "end" if there is none. */
+  private long upperIndex(double timestamp) {
+    long low = start;
+    long high = end;
+    while (low < high) {
+      long mid = (low + high) >>> 1;
+      if (timestamps[(int) (mid % capacity)] <= timestamp) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private void copyEntry(long from, long to) {
+    int fromSlot = (int) (from % capacity);
+    int toSlot = (int) (to % capacity);
+    timestamps[toSlot] = timestamps[fromSlot];
+    gyroAngles[toSlot] = gyroAngles[fromSlot];
+    System.arraycopy(poses, fromSlot * 3, poses, toSlot * 3, 3);
+    System.arraycopy(
+        moduleDistances,
+        fromSlot * moduleCount,
+        moduleDistances,
+        toSlot * moduleCount,
+        moduleCount);
+    System.arraycopy(
+        moduleAngles, fromSlot * moduleCount, moduleAngles, toSlot * moduleCount, moduleCount);
+  }
+
+  /** Returns the Kalman gain for one axis of a diagonal covariance. */
+  private static double gain(double q, double stdDev) {
+    return q == 0.0 ? 0.0 : q / (q + Math.sqrt(q * stdDev * stdDev));
+  }
+
+  private static double interpolateAngle(double start, double end, double t) {
+    return start + MathUtil.angleModulus(end - start) * t;
+  }
+
+  /** Applies a twist to a pose, matching Pose2d.exp. "result" may be the same array as "pose". */
+  private static void exp(double[] pose, double[] twist, double[] result) {
+    double dx = twist[0];
+    double dy = twist[1];
+    double dtheta = twist[2];
+    double sinTheta = Math.sin(dtheta);
+    double cosTheta = Math.cos(dtheta);
+    double s;
+    double c;
+    if (Math.abs(dtheta) < 1e-9) {
+      s = 1.0 - 1.0 / 6.0 * dtheta * dtheta;
+      c = 0.5 * dtheta;
+    } else {
+      s = sinTheta / dtheta;
+      c = (1 - cosTheta) / dtheta;
+    }
+    double localX = dx * s - dy * c;
+    double localY = dx * c + dy * s;
+    double cos = Math.cos(pose[2]);
+    double sin = Math.sin(pose[2]);
+    result[0] = pose[0] + localX * cos - localY * sin;
+    result[1] = pose[1] + localX * sin + localY * cos;
+    result[2] = MathUtil.angleModulus(pose[2] + dtheta);
+  }
+
+  /** Computes the twist from a pose to another, matching Pose2d.log. */
+  private static void log(double[] start, double x, double y, double theta, double[] result) {
+    log(start, 0, x, y, theta, result);
+  }
+
+  private static void log(
+      double[] start, int offset, double x, double y, double theta, double[] result) {
+    double cos = Math.cos(start[offset + 2]);
+    double sin = Math.sin(start[offset + 2]);
+    double translationX = (x - start[offset]) * cos + (y - start[offset + 1]) * sin;
+    double translationY = -(x - start[offset]) * sin + (y - start[offset + 1]) * cos;
+    double dtheta = MathUtil.angleModulus(theta - start[offset + 2]);
+    double halfDtheta = dtheta / 2.0;
+    double cosMinusOne = Math.cos(dtheta) - 1;
+    double halfThetaByTanOfHalfDtheta;
+    if (Math.abs(cosMinusOne) < 1e-9) {
+      halfThetaByTanOfHalfDtheta = 1.0 - 1.0 / 12.0 * dtheta * dtheta;
+    } else {
+      halfThetaByTanOfHalfDtheta = -(halfDtheta * Math.sin(dtheta)) / cosMinusOne;
+    }
+    result[0] = translationX * halfThetaByTanOfHalfDtheta + translationY * halfDtheta;
+    result[1] = -translationX * halfDtheta + translationY * halfThetaByTanOfHalfDtheta;
+    result[2] = dtheta;
+  }
+}
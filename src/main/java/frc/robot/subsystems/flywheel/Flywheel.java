@@ -21,6 +21,7 @@ import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import edu.wpi.first.wpilibj2.command.sysid.SysIdRoutine;
 import frc.robot.Constants;
+import frc.robot.util.LoopProfiler;
 import org.littletonrobotics.junction.AutoLogOutput;
 import org.littletonrobotics.junction.Logger;
 
@@ -29,6 +30,10 @@ public class Flywheel extends SubsystemBase {
   private final FlywheelIOInputsAutoLogged inputs = new FlywheelIOInputsAutoLogged();
   private final SimpleMotorFeedforward ffModel;
   private final SysIdRoutine sysId;
+  private final LoopProfiler.Section periodicSection =
+      LoopProfiler.getInstance().section("Flywheel/Periodic");
+  private final LoopProfiler.Section processInputsSection =
+      LoopProfiler.getInstance().section("Flywheel/ProcessInputs");
 
   /** Creates a new Flywheel. */
   public Flywheel(FlywheelIO io) {
@@ -64,8 +69,12 @@ public class Flywheel extends SubsystemBase {
 
   @Override
   public void periodic() {
+    long periodicStart = periodicSection.start();
     io.updateInputs(inputs);
+    long inputsStart = processInputsSection.start();
     Logger.processInputs("Flywheel", inputs);
+    processInputsSection.end(inputsStart);
+    periodicSection.end(periodicStart);
   }
 
   /** Run open loop at the specified voltage. */
@@ -13,22 +13,27 @@
 
 package frc.robot.subsystems.flywheel;
 
-import com.ctre.phoenix6.BaseStatusSignal;
 import com.ctre.phoenix6.StatusSignal;
 import com.ctre.phoenix6.configs.Slot0Configs;
 import com.ctre.phoenix6.configs.TalonFXConfiguration;
 import com.ctre.phoenix6.controls.Follower;
-import com.ctre.phoenix6.controls.VelocityVoltage;
-import com.ctre.phoenix6.controls.VoltageOut;
 import com.ctre.phoenix6.hardware.TalonFX;
 import com.ctre.phoenix6.signals.NeutralModeValue;
 import edu.wpi.first.math.util.Units;
+import frc.robot.util.DeviceConfigExecutor;
+import frc.robot.util.ParallelInitializer;
+import frc.robot.util.PhoenixConfigs;
+import frc.robot.util.StatusSignalRegistry;
+import frc.robot.util.StatusSignalRegistry.SignalClass;
+import frc.robot.util.TalonFXOutput;
 
 public class FlywheelIOTalonFX implements FlywheelIO {
   private static final double GEAR_RATIO = 1.5;
 
   private final TalonFX leader = new TalonFX(0);
   private final TalonFX follower = new TalonFX(1);
+  private final TalonFXOutput output =
+      ParallelInitializer.registerAndGet(() -> new TalonFXOutput(leader));
 
   private final StatusSignal<Double> leaderPosition = leader.getPosition();
   private final StatusSignal<Double> leaderVelocity = leader.getVelocity();
@@ -41,18 +46,31 @@ public class FlywheelIOTalonFX implements FlywheelIO {
     config.CurrentLimits.StatorCurrentLimit = 30.0;
     config.CurrentLimits.StatorCurrentLimitEnable = true;
     config.MotorOutput.NeutralMode = NeutralModeValue.Coast;
-    leader.getConfigurator().apply(config);
-    follower.getConfigurator().apply(config);
+    PhoenixConfigs.applyIfChanged(
+        config,
+        new TalonFXConfiguration(),
+        leader.getConfigurator()::refresh,
+        leader.getConfigurator()::apply);
+    PhoenixConfigs.applyIfChanged(
+        config,
+        new TalonFXConfiguration(),
+        follower.getConfigurator()::refresh,
+        follower.getConfigurator()::apply);
     follower.setControl(new Follower(leader.getDeviceID(), false));
 
-    BaseStatusSignal.setUpdateFrequencyForAll(
-        50.0, leaderPosition, leaderVelocity, leaderAppliedVolts, leaderCurrent, followerCurrent);
+    ParallelInitializer.register(
+        () -> {
+          var signalRegistry = StatusSignalRegistry.getInstance();
+          signalRegistry.register(
+              leader, SignalClass.CONTROL, leaderPosition, leaderVelocity, leaderAppliedVolts);
+          signalRegistry.register(leader, SignalClass.TELEMETRY, leaderCurrent);
+          signalRegistry.register(follower, SignalClass.TELEMETRY, followerCurrent);
+        });
   }
 
   @Override
   public void updateInputs(FlywheelIOInputs inputs) {
-    BaseStatusSignal.refreshAll(
-        leaderPosition, leaderVelocity, leaderAppliedVolts, leaderCurrent, followerCurrent);
+    // Signals are refreshed by StatusSignalRegistry at the start of the loop
     inputs.positionRad = Units.rotationsToRadians(leaderPosition.getValueAsDouble()) / GEAR_RATIO;
     inputs.velocityRadPerSec =
         Units.rotationsToRadians(leaderVelocity.getValueAsDouble()) / GEAR_RATIO;
@@ -63,26 +81,17 @@ public class FlywheelIOTalonFX implements FlywheelIO {
 
   @Override
   public void setVoltage(double volts) {
-    leader.setControl(new VoltageOut(volts));
+    output.setVoltage(volts);
   }
 
   @Override
   public void setVelocity(double velocityRadPerSec, double ffVolts) {
-    leader.setControl(
-        new VelocityVoltage(
-            Units.radiansToRotations(velocityRadPerSec),
-            0.0,
-            true,
-            ffVolts,
-            0,
-            false,
-            false,
-            false));
+    output.setVelocity(Units.radiansToRotations(velocityRadPerSec), ffVolts);
   }
 
   @Override
   public void stop() {
-    leader.stopMotor();
+    output.setVoltage(0.0);
   }
 
   @Override
@@ -91,6 +100,15 @@ public class FlywheelIOTalonFX implements FlywheelIO {
     config.kP = kP;
     config.kI = kI;
     config.kD = kD;
-    leader.getConfigurator().apply(config);
+    DeviceConfigExecutor.getInstance()
+        .submit(
+            "TalonFX " + leader.getDeviceID() + " (" + leader.getNetwork() + ")/Slot0",
+            () ->
+                PhoenixConfigs.applyIfChanged(
+                        config,
+                        new Slot0Configs(),
+                        leader.getConfigurator()::refresh,
+                        leader.getConfigurator()::apply)
+                    .isOK());
   }
 }
@@ -15,6 +15,7 @@ import edu.wpi.first.wpilibj2.command.SubsystemBase;
 import frc.robot.subsystems.vision.AprilTagVisionIO.AprilTagVisionIOInputs;
 import frc.robot.util.FieldConstants;
 import frc.robot.util.LimelightHelpers.PoseEstimate;
+import frc.robot.util.LoopProfiler;
 import frc.robot.util.VisionHelpers.TimestampedVisionUpdate;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -40,6 +41,10 @@ public class AprilTagVision extends SubsystemBase {
 
   private final AprilTagVisionIO[] io;
   private final AprilTagVisionIOInputs[] inputs;
+  private final LoopProfiler.Section periodicSection =
+      LoopProfiler.getInstance().section("AprilTagVision/Periodic");
+  private final LoopProfiler.Section processInputsSection =
+      LoopProfiler.getInstance().section("AprilTagVision/ProcessInputs");
 
   public void setDataInterfaces(Consumer<List<TimestampedVisionUpdate>> visionConsumer) {
     this.visionConsumer = visionConsumer;
@@ -73,30 +78,42 @@ public class AprilTagVision extends SubsystemBase {
 
   @Override
   public void periodic() {
+    long periodicStart = periodicSection.start();
     for (int i = 0; i < io.length; i++) {
       io[i].updateInputs(inputs[i]);
+      long inputsStart = processInputsSection.start();
       Logger.processInputs(VISION_PATH + Integer.toString(i), inputs[i]);
+      processInputsSection.end(inputsStart);
     }
-    List<TimestampedVisionUpdate> visionUpdates = processPoseEstimates();
+    List<TimestampedVisionUpdate> visionUpdates =
+        processPoseEstimates(inputs, xyStdDevCoefficient, thetaStdDevCoefficient);
     sendResultsToPoseEstimator(visionUpdates);
+    periodicSection.end(periodicStart);
   }
 
   /**
-   * Process the pose estimates and generate vision updates.
+   * Process the pose estimates and generate vision updates. Takes the standard deviation
+   * coefficients as parameters so it can run without loading the drive constants.
    *
+   * @param inputs The inputs from each camera
+   * @param xyStdDevCoefficient Scales the x and y standard deviation
+   * @param thetaStdDevCoefficient Scales the theta standard deviation
    * @return List of timestamped vision updates
    */
-  private List<TimestampedVisionUpdate> processPoseEstimates() {
+  static List<TimestampedVisionUpdate> processPoseEstimates(
+      AprilTagVisionIOInputs[] inputs, double xyStdDevCoefficient, double thetaStdDevCoefficient) {
     List<TimestampedVisionUpdate> visionUpdates = new ArrayList<>();
-    for (int instanceIndex = 0; instanceIndex < io.length; instanceIndex++) {
+    for (int instanceIndex = 0; instanceIndex < inputs.length; instanceIndex++) {
       for (PoseEstimate poseEstimates : inputs[instanceIndex].poseEstimates) {
         if (shouldSkipPoseEstimate(poseEstimates)) {
           continue;
         }
         double timestamp = poseEstimates.timestampSeconds;
         Pose2d robotPose = poseEstimates.pose;
-        double xyStdDev = calculateXYStdDev(poseEstimates, poseEstimates.tagCount);
-        double thetaStdDev = calculateThetaStdDev(poseEstimates, poseEstimates.tagCount);
+        double xyStdDev =
+            calculateStdDev(poseEstimates, poseEstimates.tagCount, xyStdDevCoefficient);
+        double thetaStdDev =
+            calculateStdDev(poseEstimates, poseEstimates.tagCount, thetaStdDevCoefficient);
         if (poseEstimates.isMegaTag2) {
           thetaStdDev = 9999999;
         }
@@ -115,7 +132,7 @@ public class AprilTagVision extends SubsystemBase {
    * @param poseEstimates The pose estimate
    * @return True if the pose estimate should be skipped, false otherwise
    */
-  private boolean shouldSkipPoseEstimate(PoseEstimate poseEstimates) {
+  private static boolean shouldSkipPoseEstimate(PoseEstimate poseEstimates) {
     return poseEstimates.tagCount < 1
         || poseEstimates.pose == null
         || isOutsideFieldBorder(poseEstimates.pose);
@@ -127,7 +144,7 @@ public class AprilTagVision extends SubsystemBase {
    * @param robotPose The robot pose
    * @return True if the robot pose is outside the field border, false otherwise
    */
-  private boolean isOutsideFieldBorder(Pose2d robotPose) {
+  private static boolean isOutsideFieldBorder(Pose2d robotPose) {
     return robotPose.getX() < -fieldBorderMargin
         || robotPose.getX() > FieldConstants.fieldLength + fieldBorderMargin
         || robotPose.getY() < -fieldBorderMargin
@@ -135,25 +152,16 @@ public class AprilTagVision extends SubsystemBase {
   }
 
   /**
-   * Calculate the standard deviation of the x and y coordinates.
+   * Calculate the standard deviation of a coordinate.
    *
    * @param poseEstimates The pose estimate
    * @param tagPosesSize The number of detected tag poses
-   * @return The standard deviation of the x and y coordinates
+   * @param coefficient The standard deviation coefficient for the coordinate
+   * @return The standard deviation of the coordinate
    */
-  private double calculateXYStdDev(PoseEstimate poseEstimates, int tagPosesSize) {
-    return xyStdDevCoefficient * Math.pow(poseEstimates.avgTagDist, 2.0) / tagPosesSize;
-  }
-
-  /**
-   * Calculate the standard deviation of the theta coordinate.
-   *
-   * @param poseEstimates The pose estimate
-   * @param tagPosesSize The number of detected tag poses
-   * @return The standard deviation of the theta coordinate
-   */
-  private double calculateThetaStdDev(PoseEstimate poseEstimates, int tagPosesSize) {
-    return thetaStdDevCoefficient * Math.pow(poseEstimates.avgTagDist, 2.0) / tagPosesSize;
+  private static double calculateStdDev(
+      PoseEstimate poseEstimates, int tagPosesSize, double coefficient) {
+    return coefficient * Math.pow(poseEstimates.avgTagDist, 2.0) / tagPosesSize;
   }
 
   /**
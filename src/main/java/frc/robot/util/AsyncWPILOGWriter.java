@@ -0,0 +1,557 @@
+// Copyright (c) 2023 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import edu.wpi.first.wpilibj.RobotController;
+import frc.robot.util.Alert.AlertType;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.littletonrobotics.junction.LogDataReceiver;
+import org.littletonrobotics.junction.LogTable;
+import org.littletonrobotics.junction.LogTable.LogValue;
+import org.littletonrobotics.junction.LogTable.LoggableType;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Writes log tables to a WPILOG file on a low-priority background thread, so that a slow disk never
+ * holds up the logger.
+ *
+ * <p>The logger clones each cycle's table once and hands the same clone to every receiver, after
+ * which nothing writes to it. {@link #putTable(LogTable)} therefore only stores a reference in a
+ * preallocated ring buffer and returns, without copying any values. This relies on every receiver
+ * treating the table as read-only, which holds for AdvantageKit's receivers and this writer, which
+ * only reads it with {@link LogTable#getAll(boolean)}. A receiver that modifies its table would
+ * change what this writer logs.
+ *
+ * <p>The background thread drains every queued table at once, encodes them in the same format as
+ * AdvantageKit's WPILOGWriter (only changed values are written), and writes the result with a
+ * single {@link FileChannel} write. When the ring buffer is full, the {@link OverflowPolicy}
+ * decides which cycles are dropped. Dropping a cycle never corrupts the log, since values are
+ * compared against the last table that was written.
+ *
+ * <p>When given a folder, the log is created with a random name, since the system clock is not set
+ * until the driver station connects. Like WPILOGWriter, the file is renamed to the date and time
+ * once the driver station is attached and the system time is valid, and the event and match are
+ * appended once match info is available. Existing files are never overwritten.
+ *
+ * <p>Call {@link #periodic()} from the main loop to log the queue depth, write rate and dropped
+ * cycles under "AsyncLogWriter".
+ */
+public class AsyncWPILOGWriter implements LogDataReceiver {
+  private static final String extraHeader = "AdvantageKit";
+  private static final String entryMetadata = "{\"source\":\"AdvantageKit\"}";
+  private static final String timestampKey = "/Timestamp";
+  private static final int initialBufferBytes = 1 << 16;
+  private static final double summaryPeriodSecs = 1.0;
+  private static final long closeTimeoutMs = 2000;
+  private static final int maxOpenAttempts = 10;
+
+  /** What to do with a new cycle when the ring buffer is full. */
+  public enum OverflowPolicy {
+    /** Discard the new cycle. */
+    DROP_NEWEST,
+
+    /** Discard the oldest queued cycle to make room for the new one. */
+    DROP_OLDEST,
+
+    /** Wait for room, which holds up the logger's receiver thread until the disk catches up. */
+    BLOCK
+  }
+
+  private final String path;
+  private final OverflowPolicy policy;
+
+  // Ring buffer, guarded by "lock"
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final LogTable[] queue;
+  private int queueHead = 0;
+  private int queueSize = 0;
+  private long droppedCycles = 0;
+  private boolean running = false;
+
+  private final AtomicLong bytesWritten = new AtomicLong();
+  private volatile boolean writeFailed = false;
+  private Thread thread = null;
+
+  // Only used by the background thread
+  private final LogTable[] batch;
+  private final Map<String, Integer> entryIds = new HashMap<>();
+  private final Map<String, LoggableType> entryTypes = new HashMap<>();
+  private LogTable lastTable = new LogTable(0);
+  private int timestampId = -1;
+  private int nextEntryId = 1;
+  private ByteBuffer buffer =
+      ByteBuffer.allocateDirect(initialBufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+  private FileChannel channel = null;
+  private Path file = null;
+  private boolean autoRename = false;
+  private String logDate = null; // Null until the system time is valid
+  private String logMatch = null; // Null until match info is available
+
+  // Only used by the main thread
+  private final Alert droppingAlert =
+      new Alert("Log writer cannot keep up, dropping cycles", AlertType.WARNING);
+  private final Alert failedAlert = new Alert("Failed to write log file", AlertType.ERROR);
+  private long lastSummaryBytes = 0;
+  private long lastSummaryDropped = 0;
+  private double lastSummaryTimestamp = 0.0;
+
+  /**
+   * Creates a writer that queues up to 250 cycles (five seconds) and drops new cycles when full.
+   *
+   * @param path Path to the log file, or a folder to create a new log file in.
+   */
+  public AsyncWPILOGWriter(String path) {
+    this(path, 250, OverflowPolicy.DROP_NEWEST);
+  }
+
+  /**
+   * Creates a writer.
+   *
+   * @param path Path to the log file, or a folder to create a new log file in.
+   * @param capacity Number of cycles that can be queued before the overflow policy applies.
+   * @param policy What to do with a new cycle when the queue is full.
+   */
+  public AsyncWPILOGWriter(String path, int capacity, OverflowPolicy policy) {
+    this.path = path;
+    this.policy = policy;
+    queue = new LogTable[capacity];
+    batch = new LogTable[capacity];
+  }
+
+  @Override
+  public void start() {
+    lock.lock();
+    try {
+      if (running) {
+        return;
+      }
+      running = true;
+    } finally {
+      lock.unlock();
+    }
+    thread = new Thread(this::run, "AsyncWPILOGWriter");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  @Override
+  public void end() {
+    lock.lock();
+    try {
+      running = false;
+      notEmpty.signal();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    if (thread != null) {
+      try {
+        thread.join(closeTimeoutMs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  public void putTable(LogTable table) throws InterruptedException {
+    lock.lock();
+    try {
+      if (queueSize == queue.length) {
+        switch (policy) {
+          case DROP_NEWEST -> {
+            droppedCycles++;
+            return;
+          }
+          case DROP_OLDEST -> {
+            queue[queueHead] = null;
+            queueHead = (queueHead + 1) % queue.length;
+            queueSize--;
+            droppedCycles++;
+          }
+          case BLOCK -> {
+            while (queueSize == queue.length && running) {
+              notFull.await();
+            }
+          }
+        }
+      }
+      if (!running) {
+        return;
+      }
+      queue[(queueHead + queueSize) % queue.length] = table;
+      queueSize++;
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Returns the number of cycles waiting to be written. */
+  public int getQueueDepth() {
+    lock.lock();
+    try {
+      return queueSize;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Returns the number of cycles dropped because the queue was full. */
+  public long getDroppedCycles() {
+    lock.lock();
+    try {
+      return droppedCycles;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Returns the number of bytes written to the log file. */
+  public long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  /** Logs the writer's statistics and updates alerts. Only called from the main loop. */
+  public void periodic() {
+    Logger.recordOutput("AsyncLogWriter/QueueDepth", getQueueDepth());
+    long dropped = getDroppedCycles();
+    Logger.recordOutput("AsyncLogWriter/DroppedCycles", dropped);
+
+    double timestamp = Logger.getRealTimestamp() / 1e6;
+    double elapsedSecs = timestamp - lastSummaryTimestamp;
+    if (elapsedSecs >= summaryPeriodSecs) {
+      long bytes = getBytesWritten();
+      double bytesPerSecond = (bytes - lastSummaryBytes) / elapsedSecs;
+      Logger.recordOutput("AsyncLogWriter/BytesPerSecond", bytesPerSecond);
+      droppingAlert.set(dropped > lastSummaryDropped);
+      lastSummaryBytes = bytes;
+      lastSummaryDropped = dropped;
+      lastSummaryTimestamp = timestamp;
+    }
+    failedAlert.set(writeFailed);
+  }
+
+  private void run() {
+    try {
+      open();
+      while (true) {
+        int count;
+        lock.lock();
+        try {
+          while (queueSize == 0 && running) {
+            notEmpty.await(summaryPeriodSecs, TimeUnit.SECONDS);
+          }
+          if (queueSize == 0) {
+            break;
+          }
+          count = queueSize;
+          for (int i = 0; i < count; i++) {
+            batch[i] = queue[queueHead];
+            queue[queueHead] = null;
+            queueHead = (queueHead + 1) % queue.length;
+          }
+          queueSize = 0;
+          notFull.signalAll();
+        } finally {
+          lock.unlock();
+        }
+
+        for (int i = 0; i < count; i++) {
+          encodeTable(batch[i]);
+          batch[i] = null;
+        }
+        flush();
+        if (autoRename) {
+          updateFileName(lastTable);
+        }
+      }
+    } catch (IOException e) {
+      System.err.println("[AsyncWPILOGWriter] Failed to write log: " + e.getMessage());
+      writeFailed = true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      close();
+    }
+  }
+
+  private void open() throws IOException {
+    autoRename = !path.endsWith(".wpilog");
+    for (int attempt = 1; channel == null; attempt++) {
+      file = Path.of(path);
+      if (autoRename) {
+        int identifier = ThreadLocalRandom.current().nextInt();
+        file = file.resolve(String.format("akit_%08x.wpilog", identifier));
+      }
+      if (file.getParent() != null) {
+        Files.createDirectories(file.getParent());
+      }
+      try {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+      } catch (FileAlreadyExistsException e) {
+        if (!autoRename || attempt == maxOpenAttempts) {
+          throw e;
+        }
+      }
+    }
+    System.out.println("[AsyncWPILOGWriter] Logging to \"" + file + "\"");
+
+    byte[] header = extraHeader.getBytes(StandardCharsets.UTF_8);
+    reserve(12 + header.length);
+    buffer.put("WPILOG".getBytes(StandardCharsets.US_ASCII));
+    buffer.putShort((short) 0x0100);
+    buffer.putInt(header.length);
+    buffer.put(header);
+    flush();
+  }
+
+  /**
+   * Renames the file once the date or match info becomes available. The open channel keeps
+   * writing to the renamed file. Renaming stops if it fails, rather than replacing another file.
+   */
+  private void updateFileName(LogTable table) {
+    if (logDate == null
+        && table.get("DriverStation/DSAttached", false)
+        && RobotController.isSystemTimeValid()) {
+      logDate = new SimpleDateFormat("yy-MM-dd_HH-mm-ss").format(new Date());
+    }
+    if (logMatch == null) {
+      String matchType =
+          switch ((int) table.get("DriverStation/MatchType", 0L)) {
+            case 1 -> "p";
+            case 2 -> "q";
+            case 3 -> "e";
+            default -> null;
+          };
+      if (matchType != null) {
+        logMatch =
+            table.get("DriverStation/EventName", "").toLowerCase()
+                + "_"
+                + matchType
+                + table.get("DriverStation/MatchNumber", 0L);
+      }
+    }
+    if (logDate == null) {
+      return;
+    }
+
+    String name = "akit_" + logDate + (logMatch != null ? "_" + logMatch : "") + ".wpilog";
+    Path renamed = file.resolveSibling(name);
+    if (renamed.equals(file)) {
+      return;
+    }
+    try {
+      Files.move(file, renamed);
+      file = renamed;
+      System.out.println("[AsyncWPILOGWriter] Renamed log to \"" + file + "\"");
+    } catch (IOException e) {
+      System.err.println("[AsyncWPILOGWriter] Failed to rename log: " + e.getMessage());
+      autoRename = false;
+    }
+    if (logMatch != null) {
+      autoRename = false; // Final name
+    }
+  }
+
+  private void close() {
+    if (channel != null) {
+      try {
+        channel.force(false);
+        channel.close();
+      } catch (IOException e) {
+        writeFailed = true;
+      }
+    }
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      bytesWritten.addAndGet(channel.write(buffer));
+    }
+    buffer.clear();
+  }
+
+  /** Encodes the timestamp and every value that changed since the last table. */
+  private void encodeTable(LogTable table) {
+    long timestamp = table.getTimestamp();
+    if (timestampId < 0) {
+      timestampId = startEntry(timestampKey, LoggableType.Integer.getWPILOGType(), timestamp);
+    }
+    startRecord(timestampId, timestamp, Long.BYTES);
+    buffer.putLong(timestamp);
+
+    Map<String, LogValue> oldValues = lastTable.getAll(false);
+    for (Map.Entry<String, LogValue> field : table.getAll(false).entrySet()) {
+      String key = field.getKey();
+      LogValue value = field.getValue();
+      Integer id = entryIds.get(key);
+      if (id == null) {
+        id = startEntry(key, value.getWPILOGType(), timestamp);
+        entryIds.put(key, id);
+        entryTypes.put(key, value.type);
+      } else if (value.equals(oldValues.get(key))) {
+        continue;
+      }
+      if (entryTypes.get(key) == value.type) {
+        encodeValue(id, timestamp, value);
+      }
+    }
+    lastTable = table;
+  }
+
+  private int startEntry(String name, String type, long timestamp) {
+    int id = nextEntryId++;
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    byte[] typeBytes = type.getBytes(StandardCharsets.UTF_8);
+    byte[] metadataBytes = entryMetadata.getBytes(StandardCharsets.UTF_8);
+    startRecord(0, timestamp, 17 + nameBytes.length + typeBytes.length + metadataBytes.length);
+    buffer.put((byte) 0); // Start control record
+    buffer.putInt(id);
+    putBytes(nameBytes);
+    putBytes(typeBytes);
+    putBytes(metadataBytes);
+    return id;
+  }
+
+  private void encodeValue(int id, long timestamp, LogValue value) {
+    switch (value.type) {
+      case Raw -> {
+        byte[] raw = value.getRaw();
+        startRecord(id, timestamp, raw.length);
+        buffer.put(raw);
+      }
+      case Boolean -> {
+        startRecord(id, timestamp, 1);
+        buffer.put((byte) (value.getBoolean() ? 1 : 0));
+      }
+      case Integer -> {
+        startRecord(id, timestamp, Long.BYTES);
+        buffer.putLong(value.getInteger());
+      }
+      case Float -> {
+        startRecord(id, timestamp, Float.BYTES);
+        buffer.putFloat(value.getFloat());
+      }
+      case Double -> {
+        startRecord(id, timestamp, Double.BYTES);
+        buffer.putDouble(value.getDouble());
+      }
+      case String -> {
+        byte[] string = value.getString().getBytes(StandardCharsets.UTF_8);
+        startRecord(id, timestamp, string.length);
+        buffer.put(string);
+      }
+      case BooleanArray -> {
+        boolean[] array = value.getBooleanArray();
+        startRecord(id, timestamp, array.length);
+        for (boolean element : array) {
+          buffer.put((byte) (element ? 1 : 0));
+        }
+      }
+      case IntegerArray -> {
+        long[] array = value.getIntegerArray();
+        startRecord(id, timestamp, array.length * Long.BYTES);
+        buffer.asLongBuffer().put(array);
+        buffer.position(buffer.position() + array.length * Long.BYTES);
+      }
+      case FloatArray -> {
+        float[] array = value.getFloatArray();
+        startRecord(id, timestamp, array.length * Float.BYTES);
+        buffer.asFloatBuffer().put(array);
+        buffer.position(buffer.position() + array.length * Float.BYTES);
+      }
+      case DoubleArray -> {
+        double[] array = value.getDoubleArray();
+        startRecord(id, timestamp, array.length * Double.BYTES);
+        buffer.asDoubleBuffer().put(array);
+        buffer.position(buffer.position() + array.length * Double.BYTES);
+      }
+      case StringArray -> {
+        String[] array = value.getStringArray();
+        byte[][] strings = new byte[array.length][];
+        int size = Integer.BYTES;
+        for (int i = 0; i < array.length; i++) {
+          strings[i] = array[i].getBytes(StandardCharsets.UTF_8);
+          size += Integer.BYTES + strings[i].length;
+        }
+        startRecord(id, timestamp, size);
+        buffer.putInt(array.length);
+        for (byte[] string : strings) {
+          putBytes(string);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes a record header, using the fewest bytes for each field, and reserves room for the
+   * payload.
+   */
+  private void startRecord(int id, long timestamp, int payloadSize) {
+    int idLength = byteLength(id);
+    int sizeLength = byteLength(payloadSize);
+    int timestampLength = byteLength(timestamp);
+    reserve(1 + idLength + sizeLength + timestampLength + payloadSize);
+    buffer.put((byte) ((idLength - 1) | (sizeLength - 1) << 2 | (timestampLength - 1) << 4));
+    putVariable(id, idLength);
+    putVariable(payloadSize, sizeLength);
+    putVariable(timestamp, timestampLength);
+  }
+
+  private void putBytes(byte[] bytes) {
+    buffer.putInt(bytes.length);
+    buffer.put(bytes);
+  }
+
+  private void putVariable(long value, int length) {
+    for (int i = 0; i < length; i++) {
+      buffer.put((byte) (value >>> (8 * i)));
+    }
+  }
+
+  private static int byteLength(long value) {
+    return Math.max(1, (Long.SIZE - Long.numberOfLeadingZeros(value) + 7) / 8);
+  }
+
+  /** Grows the buffer if it cannot fit the provided number of bytes. */
+  private void reserve(int bytes) {
+    if (buffer.remaining() >= bytes) {
+      return;
+    }
+    int capacity = buffer.capacity();
+    while (capacity - buffer.position() < bytes) {
+      capacity *= 2;
+    }
+    ByteBuffer grown = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.flip();
+    grown.put(buffer);
+    buffer = grown;
+  }
+}
@@ -0,0 +1,320 @@
+// Copyright (c) 2023 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.wpi.first.util.datalog.DataLogReader;
+import edu.wpi.first.util.datalog.DataLogRecord;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Replays every log in a directory concurrently, then reports the runtime of each replay and how
+ * far the replayed outputs moved from the original ones.
+ *
+ * <p>Enabled by setting the "BATCH_REPLAY_DIR" environment variable when starting the simulator,
+ * e.g. "BATCH_REPLAY_DIR=/path/to/logs ./gradlew simulateJava". "BATCH_REPLAY_THREADS" optionally
+ * sets the number of concurrent replays, which defaults to the number of processors. Setting
+ * "REPLAY_REGRESSION" instead replays the golden logs checked in to "replay-golden", and fails
+ * unless every replay matches its original within the tolerance.
+ *
+ * <p>The HAL and the logger are global to a process, so each replay runs in its own JVM with the
+ * same classpath, selecting the log through "AKIT_LOG_PATH". The robot type is read from the log's
+ * "RobotType" metadata, so logs recorded in simulation replay with the simulator's constants.
+ * Each replay writes its "_sim" log next to the original and its console output to a "_sim.txt"
+ * file. The pose estimate, odometry pose and swerve states are compared at every timestamp, and
+ * the results are printed and written to "replay_report.json" in the directory.
+ */
+public final class BatchReplay {
+  private static final String directoryEnvVar = "BATCH_REPLAY_DIR";
+  private static final String threadsEnvVar = "BATCH_REPLAY_THREADS";
+  private static final String regressionEnvVar = "REPLAY_REGRESSION";
+  private static final String goldenDirectory = "replay-golden";
+  private static final long replayTimeoutMins = 30;
+  private static final String[] comparedKeyPrefixes = {
+    "Odometry/PoseEstimation", "Odometry/Drive", "SwerveStates/"
+  };
+  // Largest difference allowed in any value, in meters, radians or meters/sec
+  private static final double tolerance = 1e-3;
+
+  /** Values of one output in a log, keyed by timestamp. */
+  private record Output(String key, String type, Map<Long, double[]> values) {}
+
+  /** Comparison of one output between the original and replayed logs. */
+  private record OutputDelta(
+      String key, int samples, int missing, double maxError, double rmsError, boolean passed) {}
+
+  /** Result of replaying one log. */
+  private record LogResult(
+      String log, int exitCode, double runtimeSecs, boolean passed, List<OutputDelta> outputs) {}
+
+  /** Machine-readable report for every replay. */
+  private record Report(boolean passed, double tolerance, List<LogResult> logs) {}
+
+  private BatchReplay() {}
+
+  /** Returns whether a batch replay was requested through the environment. */
+  public static boolean isRequested() {
+    return System.getenv(directoryEnvVar) != null || System.getenv(regressionEnvVar) != null;
+  }
+
+  /** Replays every log in the requested directory and writes the report. */
+  public static void run() {
+    boolean regression = System.getenv(directoryEnvVar) == null;
+    Path directory = Path.of(regression ? goldenDirectory : System.getenv(directoryEnvVar));
+    String threadsValue = System.getenv(threadsEnvVar);
+    int threads =
+        threadsValue != null
+            ? Integer.parseInt(threadsValue)
+            : Runtime.getRuntime().availableProcessors();
+
+    List<Path> logs;
+    try (Stream<Path> files = Files.list(directory)) {
+      logs =
+          files
+              .filter(path -> path.toString().endsWith(".wpilog"))
+              .filter(path -> !path.toString().endsWith("_sim.wpilog"))
+              .sorted()
+              .toList();
+    } catch (IOException e) {
+      System.err.println("[BatchReplay] Failed to list " + directory + ": " + e.getMessage());
+      System.exit(1);
+      return;
+    }
+    System.out.printf("[BatchReplay] Replaying %d logs, %d at a time%n", logs.size(), threads);
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<LogResult>> futures = new ArrayList<>();
+    for (Path log : logs) {
+      futures.add(executor.submit(() -> replay(log)));
+    }
+    List<LogResult> results = new ArrayList<>();
+    for (int i = 0; i < logs.size(); i++) {
+      try {
+        results.add(futures.get(i).get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (ExecutionException e) {
+        results.add(new LogResult(logs.get(i).toString(), -1, 0.0, false, List.of()));
+      }
+    }
+    executor.shutdownNow();
+
+    boolean passed = !logs.isEmpty() && results.stream().allMatch(LogResult::passed);
+    writeReport(directory.resolve("replay_report.json"), new Report(passed, tolerance, results));
+    boolean failed =
+        regression ? !passed : results.stream().anyMatch(result -> result.exitCode() != 0);
+    System.exit(failed ? 1 : 0);
+  }
+
+  /** Replays a single log in a new JVM and compares its outputs to the original. */
+  private static LogResult replay(Path log) throws IOException, InterruptedException {
+    String javaPath = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    ProcessBuilder builder =
+        new ProcessBuilder(
+            javaPath,
+            "-Djava.library.path=" + System.getProperty("java.library.path"),
+            "-cp",
+            System.getProperty("java.class.path"),
+            "frc.robot.Main");
+    builder.environment().remove(directoryEnvVar);
+    builder.environment().remove(regressionEnvVar);
+    builder.environment().remove("HALSIM_EXTENSIONS"); // No GUI or driver station
+    builder.environment().put("AKIT_LOG_PATH", log.toAbsolutePath().toString());
+    builder.environment().put("ROBOT_TYPE", readRobotType(log));
+    builder.redirectErrorStream(true);
+    builder.redirectOutput(new File(withSuffix(log, "_sim.txt")));
+
+    long start = System.nanoTime();
+    Process process = builder.start();
+    int exitCode;
+    if (process.waitFor(replayTimeoutMins, TimeUnit.MINUTES)) {
+      exitCode = process.exitValue();
+    } else {
+      process.destroyForcibly();
+      exitCode = -1;
+    }
+    double runtimeSecs = (System.nanoTime() - start) / 1e9;
+
+    List<OutputDelta> deltas = new ArrayList<>();
+    Path simLog = Path.of(withSuffix(log, "_sim.wpilog"));
+    if (exitCode == 0 && Files.exists(simLog)) {
+      Map<String, Output> original = readOutputs(log, "RealOutputs/");
+      Map<String, Output> replayed = readOutputs(simLog, "ReplayOutputs/");
+      for (Output output : original.values()) {
+        deltas.add(compareOutput(output, replayed.get(output.key())));
+      }
+      deltas.sort(Comparator.comparing(OutputDelta::key));
+    }
+    boolean passed =
+        exitCode == 0 && !deltas.isEmpty() && deltas.stream().allMatch(OutputDelta::passed);
+    System.out.printf(
+        "[BatchReplay] %s finished in %.1f s (exit code %d)%n",
+        log.getFileName(), runtimeSecs, exitCode);
+    return new LogResult(log.toString(), exitCode, runtimeSecs, passed, deltas);
+  }
+
+  /**
+   * Reads the compared outputs from a log, keyed by output key. Struct values are decoded as their
+   * sequence of doubles.
+   */
+  private static Map<String, Output> readOutputs(Path log, String prefix) throws IOException {
+    Map<String, Output> outputs = new HashMap<>();
+    Map<Integer, Output> outputsById = new HashMap<>();
+    DataLogReader reader = new DataLogReader(log.toString());
+    if (!reader.isValid()) {
+      return outputs;
+    }
+    for (DataLogRecord record : reader) {
+      if (record.isStart()) {
+        var data = record.getStartData();
+        String name = data.name.startsWith("/") ? data.name.substring(1) : data.name;
+        if (name.startsWith(prefix) && isCompared(name.substring(prefix.length()))) {
+          Output output = new Output(name.substring(prefix.length()), data.type, new HashMap<>());
+          outputs.put(output.key(), output);
+          outputsById.put(data.entry, output);
+        }
+      } else if (!record.isControl() && outputsById.containsKey(record.getEntry())) {
+        Output output = outputsById.get(record.getEntry());
+        double[] values;
+        if (output.type().startsWith("struct:")) {
+          ByteBuffer buffer = ByteBuffer.wrap(record.getRaw()).order(ByteOrder.LITTLE_ENDIAN);
+          values = new double[buffer.remaining() / Double.BYTES];
+          buffer.asDoubleBuffer().get(values);
+        } else if (output.type().equals("double[]")) {
+          values = record.getDoubleArray();
+        } else {
+          continue;
+        }
+        output.values().put(record.getTimestamp(), values);
+      }
+    }
+    return outputs;
+  }
+
+  /** Returns the robot type recorded in a log, or COMPBOT for logs recorded without it. */
+  private static String readRobotType(Path log) throws IOException {
+    DataLogReader reader = new DataLogReader(log.toString());
+    if (!reader.isValid()) {
+      return "COMPBOT";
+    }
+    int entry = -1;
+    for (DataLogRecord record : reader) {
+      if (record.isStart() && record.getStartData().name.equals("/RealMetadata/RobotType")) {
+        entry = record.getStartData().entry;
+      } else if (!record.isControl() && record.getEntry() == entry) {
+        return record.getString();
+      }
+    }
+    return "COMPBOT";
+  }
+
+  private static boolean isCompared(String key) {
+    for (String prefix : comparedKeyPrefixes) {
+      if (key.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Compares the values logged at the same timestamps in the original and replayed logs. */
+  private static OutputDelta compareOutput(Output original, Output replayed) {
+    if (replayed == null) {
+      int missing = original.values().size();
+      return new OutputDelta(original.key(), 0, missing, Double.NaN, Double.NaN, false);
+    }
+    int samples = 0;
+    int missing = 0;
+    double maxError = 0.0;
+    double sumSquaredError = 0.0;
+    for (var entry : original.values().entrySet()) {
+      double[] replayedValues = replayed.values().get(entry.getKey());
+      if (replayedValues == null) {
+        missing++;
+        continue;
+      }
+      double error = sampleError(original, entry.getValue(), replayedValues);
+      samples++;
+      maxError = Math.max(maxError, error);
+      sumSquaredError += error * error;
+    }
+    double rmsError = samples > 0 ? Math.sqrt(sumSquaredError / samples) : Double.NaN;
+    boolean passed = missing == 0 && maxError <= tolerance;
+    return new OutputDelta(original.key(), samples, missing, maxError, rmsError, passed);
+  }
+
+  /** Returns the largest difference between two samples, wrapping angles to [-pi, pi]. */
+  private static double sampleError(Output output, double[] original, double[] replayed) {
+    if (original.length != replayed.length) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double error = 0.0;
+    for (int i = 0; i < original.length; i++) {
+      double difference = replayed[i] - original[i];
+      if (isAngle(output, i)) {
+        difference = Math.IEEEremainder(difference, 2.0 * Math.PI);
+      }
+      error = Math.max(error, Math.abs(difference));
+    }
+    return error;
+  }
+
+  /** Returns whether the value at an index is an angle in radians. */
+  private static boolean isAngle(Output output, int index) {
+    return switch (output.type()) {
+      case "struct:Pose2d" -> index % 3 == 2;
+      case "struct:SwerveModuleState[]" -> index % 2 == 1;
+      // Logs recorded before structs store poses as {x, y, rot} and states as {angle, speed}
+      default -> output.key().startsWith("SwerveStates/") ? index % 2 == 0 : index % 3 == 2;
+    };
+  }
+
+  private static void writeReport(Path path, Report report) {
+    for (LogResult result : report.logs()) {
+      for (OutputDelta delta : result.outputs()) {
+        System.out.printf(
+            "[BatchReplay] %s %s: %d samples, %d missing, max error %.6f, rms error %.6f%s%n",
+            Path.of(result.log()).getFileName(),
+            delta.key(),
+            delta.samples(),
+            delta.missing(),
+            delta.maxError(),
+            delta.rmsError(),
+            delta.passed() ? "" : " (FAILED)");
+      }
+    }
+    try {
+      new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(path.toFile(), report);
+    } catch (IOException e) {
+      System.err.println("[BatchReplay] Failed to write report: " + e.getMessage());
+    }
+    System.out.println("[BatchReplay] Report written to " + path);
+  }
+
+  private static String withSuffix(Path log, String suffix) {
+    String path = log.toString();
+    return path.substring(0, path.length() - ".wpilog".length()) + suffix;
+  }
+}
@@ -0,0 +1,132 @@
+// Copyright (c) 2023 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import frc.robot.util.Alert.AlertType;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BooleanSupplier;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Applies device configuration writes on a background thread so that callers never block on CAN.
+ *
+ * <p>Writes are queued by key, which should identify a device and the group of settings being
+ * written (e.g. "TalonFX 1 (chassis)/MotorOutput"). If a write is submitted while another with the
+ * same key is still queued, the queued write is replaced, so rapid toggles only apply the newest
+ * value. Each write is retried a few times before being reported as failed. Results are reported
+ * through alerts, which are updated by {@link #periodic()} on the main thread.
+ */
+public class DeviceConfigExecutor {
+  private static final int maxAttempts = 3;
+
+  private record Result(String key, boolean success) {}
+
+  private final Map<String, BooleanSupplier> pending = new HashMap<>(); // Guarded by "this"
+  private int applyingCount = 0; // Guarded by "this"
+  private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+  private final Queue<Result> results = new ConcurrentLinkedQueue<>();
+
+  // Only used by the main thread
+  private final Map<String, Alert> failureAlerts = new LinkedHashMap<>();
+  private final Alert pendingAlert = new Alert("Applying device configuration", AlertType.INFO);
+
+  private static DeviceConfigExecutor instance = null;
+
+  public static synchronized DeviceConfigExecutor getInstance() {
+    if (instance == null) {
+      instance = new DeviceConfigExecutor();
+    }
+    return instance;
+  }
+
+  private DeviceConfigExecutor() {
+    Thread thread = new Thread(this::run, "DeviceConfigExecutor");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Queues a configuration write, replacing any queued write with the same key. Safe to call from
+   * any thread.
+   *
+   * @param key Identifies the device and group of settings being written.
+   * @param apply Applies the configuration and returns true on success. Runs on the background
+   *     thread and may block.
+   */
+  public void submit(String key, BooleanSupplier apply) {
+    synchronized (this) {
+      if (pending.put(key, apply) == null) {
+        queue.add(key);
+      }
+    }
+  }
+
+  /** Returns the number of writes that have not finished yet. */
+  public synchronized int getPendingCount() {
+    return pending.size() + applyingCount;
+  }
+
+  /** Updates alerts with the results of completed writes. Only called from the main loop. */
+  public void periodic() {
+    Result result;
+    while ((result = results.poll()) != null) {
+      Alert alert = failureAlerts.get(result.key());
+      if (alert == null && !result.success()) {
+        alert = new Alert("Failed to apply configuration: " + result.key(), AlertType.ERROR);
+        failureAlerts.put(result.key(), alert);
+      }
+      if (alert != null) {
+        alert.set(!result.success());
+      }
+    }
+
+    int pendingCount = getPendingCount();
+    pendingAlert.setText("Applying device configuration (" + pendingCount + " pending)");
+    pendingAlert.set(pendingCount > 0);
+    Logger.recordOutput("DeviceConfig/Pending", pendingCount);
+  }
+
+  private void run() {
+    while (true) {
+      String key;
+      try {
+        key = queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      BooleanSupplier apply;
+      synchronized (this) {
+        apply = pending.remove(key);
+        if (apply == null) {
+          continue;
+        }
+        applyingCount++;
+      }
+
+      boolean success = false;
+      for (int i = 0; i < maxAttempts && !success; i++) {
+        try {
+          success = apply.getAsBoolean();
+        } catch (RuntimeException e) {
+          success = false;
+        }
+      }
+      results.add(new Result(key, success));
+      synchronized (this) {
+        applyingCount--;
+      }
+    }
+  }
+}
@@ -0,0 +1,184 @@
+// Copyright (c) 2023 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import frc.robot.Constants;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.littletonrobotics.junction.LogDataReceiver;
+import org.littletonrobotics.junction.LogTable;
+import org.littletonrobotics.junction.LogTable.LogValue;
+
+/**
+ * Wraps a data receiver, such as an NT4Publisher, and only passes it the keys that are allowed and
+ * due to be published this cycle.
+ *
+ * <p>Keys are matched by prefix, relative to the root of the log (e.g. "RealOutputs/Odometry" or
+ * "Drive/Module"). A key is denied if it matches a denied prefix, or if any allowed prefixes are
+ * set and it matches none of them. Each allowed key is published at the rate of the longest
+ * matching rate prefix, or at the default rate. All keys with the same rate are published on the
+ * same cycle, so related values stay consistent. Rates are based on the log timestamps, so they
+ * also apply when replaying.
+ *
+ * <p>Configure the receiver before adding it to the logger. Matching results are cached per key, so
+ * filtering costs one map lookup per key each cycle.
+ */
+public class FilteredDataReceiver implements LogDataReceiver {
+  // Cycles may start slightly early, so allow half a loop of jitter
+  private static final long jitterMicros = Constants.loopPeriodMs * 1000L / 2;
+
+  /** Keys published at the same rate. */
+  private static class RateGroup {
+    private final long periodMicros;
+    private long lastPublishMicros = -1;
+    private boolean due = false;
+
+    private RateGroup(long periodMicros) {
+      this.periodMicros = periodMicros;
+    }
+
+    private void update(long timestamp) {
+      due = lastPublishMicros < 0 || timestamp - lastPublishMicros >= periodMicros - jitterMicros;
+      if (due) {
+        lastPublishMicros = timestamp;
+      }
+    }
+  }
+
+  private final LogDataReceiver receiver;
+  private final List<String> allowedPrefixes = new ArrayList<>();
+  private final List<String> deniedPrefixes = new ArrayList<>();
+  private final Map<String, RateGroup> prefixGroups = new HashMap<>();
+  private final Map<Long, RateGroup> groupsByPeriod = new HashMap<>();
+  private final List<RateGroup> groups = new ArrayList<>();
+  private final RateGroup deniedGroup = new RateGroup(Long.MAX_VALUE); // Never due
+  private RateGroup defaultGroup = getGroup(0);
+
+  private final Map<String, RateGroup> keyGroups = new HashMap<>();
+
+  /**
+   * Creates a filter that publishes every key every cycle until configured.
+   *
+   * @param receiver The receiver to pass the filtered tables to.
+   */
+  public FilteredDataReceiver(LogDataReceiver receiver) {
+    this.receiver = receiver;
+  }
+
+  /**
+   * Only publishes keys that match one of the allowed prefixes. Can be called more than once.
+   *
+   * @param prefix Start of the keys to allow.
+   */
+  public FilteredDataReceiver allow(String prefix) {
+    allowedPrefixes.add(prefix);
+    return this;
+  }
+
+  /**
+   * Never publishes keys that match the prefix, even if they are allowed.
+   *
+   * @param prefix Start of the keys to deny.
+   */
+  public FilteredDataReceiver deny(String prefix) {
+    deniedPrefixes.add(prefix);
+    return this;
+  }
+
+  /**
+   * Sets the rate for keys that match the prefix.
+   *
+   * @param prefix Start of the keys to rate limit.
+   * @param rateHz Maximum publish rate, in cycles per second.
+   */
+  public FilteredDataReceiver setRate(String prefix, double rateHz) {
+    prefixGroups.put(prefix, getGroup(toPeriodMicros(rateHz)));
+    return this;
+  }
+
+  /**
+   * Sets the rate for keys that do not match any rate prefix.
+   *
+   * @param rateHz Maximum publish rate, in cycles per second.
+   */
+  public FilteredDataReceiver setDefaultRate(double rateHz) {
+    defaultGroup = getGroup(toPeriodMicros(rateHz));
+    return this;
+  }
+
+  @Override
+  public void start() {
+    receiver.start();
+  }
+
+  @Override
+  public void end() {
+    receiver.end();
+  }
+
+  @Override
+  public void putTable(LogTable table) throws InterruptedException {
+    long timestamp = table.getTimestamp();
+    for (RateGroup group : groups) {
+      group.update(timestamp);
+    }
+
+    LogTable filtered = new LogTable(timestamp);
+    boolean skippedAny = false;
+    for (Map.Entry<String, LogValue> field : table.getAll(true).entrySet()) {
+      RateGroup group = keyGroups.get(field.getKey());
+      if (group == null) {
+        group = findGroup(field.getKey());
+        keyGroups.put(field.getKey(), group);
+      }
+      if (group.due) {
+        filtered.put(field.getKey(), field.getValue());
+      } else {
+        skippedAny = true;
+      }
+    }
+    receiver.putTable(skippedAny ? filtered : table);
+  }
+
+  /** Returns the group a key is published with, or the denied group. */
+  private RateGroup findGroup(String key) {
+    if (!allowedPrefixes.isEmpty() && allowedPrefixes.stream().noneMatch(key::startsWith)) {
+      return deniedGroup;
+    }
+    if (deniedPrefixes.stream().anyMatch(key::startsWith)) {
+      return deniedGroup;
+    }
+    String longestPrefix = null;
+    for (String prefix : prefixGroups.keySet()) {
+      if (key.startsWith(prefix)
+          && (longestPrefix == null || prefix.length() > longestPrefix.length())) {
+        longestPrefix = prefix;
+      }
+    }
+    return longestPrefix != null ? prefixGroups.get(longestPrefix) : defaultGroup;
+  }
+
+  private RateGroup getGroup(long periodMicros) {
+    return groupsByPeriod.computeIfAbsent(
+        periodMicros,
+        period -> {
+          RateGroup group = new RateGroup(period);
+          groups.add(group);
+          return group;
+        });
+  }
+
+  private static long toPeriodMicros(double rateHz) {
+    if (!(rateHz > 0.0)) {
+      throw new IllegalArgumentException("Publish rate must be positive: " + rateHz);
+    }
+    return Math.round(1e6 / rateHz);
+  }
+}
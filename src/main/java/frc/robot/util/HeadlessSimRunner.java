@@ -0,0 +1,187 @@
+// Copyright (c) 2023 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import com.sun.management.ThreadMXBean;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import frc.robot.Constants;
+import frc.robot.util.SimScenario.RobotMode;
+import frc.robot.util.SimScenario.Segment;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Runs a {@link SimScenario} against the simulated robot as fast as the CPU allows, then prints
+ * step time and allocation statistics and exits.
+ *
+ * <p>Enabled by setting the "HEADLESS_SIM" environment variable to a scenario name when starting
+ * the simulator, e.g. "HEADLESS_SIM=match ./gradlew simulateJava". "HEADLESS_SIM_AUTO" optionally
+ * selects the auto to run by name, and "HEADLESS_SIM_LOG" records the run to a WPILOG file, e.g. a
+ * golden log for the replay regression check. Simulated time is paused and advanced one loop at a
+ * time from a separate thread, and each step waits for the robot loop and every notifier to finish,
+ * so runs are deterministic and never skip loops.
+ *
+ * <p>The step time covers everything run while simulated time advances by one loop: the robot
+ * loop, every notifier and the simulator's own bookkeeping. It is an upper bound on the loop time,
+ * which is logged per section by {@link LoopProfiler}.
+ */
+public class HeadlessSimRunner {
+  private static final String scenarioEnvVar = "HEADLESS_SIM";
+  private static final String autoEnvVar = "HEADLESS_SIM_AUTO";
+  private static final String logEnvVar = "HEADLESS_SIM_LOG";
+  private static final double loopPeriodSecs = Constants.loopPeriodMs / 1000.0;
+
+  private static final ThreadMXBean threadBean =
+      (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private final SimScenario scenario;
+  private final long robotThreadId;
+
+  private HeadlessSimRunner(SimScenario scenario, long robotThreadId) {
+    this.scenario = scenario;
+    this.robotThreadId = robotThreadId;
+  }
+
+  /** Returns whether a headless run was requested through the environment. */
+  public static boolean isRequested() {
+    return System.getenv(scenarioEnvVar) != null;
+  }
+
+  /** Returns the path to record the run to, or null if the run is not recorded. */
+  public static String getLogPath() {
+    return System.getenv(logEnvVar);
+  }
+
+  /**
+   * Pauses simulated time and starts running the requested scenario in the background. Only called
+   * from robotInit, so the robot loop has not started yet.
+   */
+  public static void start() {
+    SimScenario scenario = SimScenario.forName(System.getenv(scenarioEnvVar));
+    String auto = System.getenv(autoEnvVar);
+    if (auto != null) {
+      SmartDashboard.putString("Auto Choices/selected", auto);
+    }
+
+    SimHooks.pauseTiming();
+    var runner = new HeadlessSimRunner(scenario, Thread.currentThread().getId());
+    Thread thread = new Thread(runner::run, "HeadlessSimRunner");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void run() {
+    SimHooks.waitForProgramStart();
+    DriverStationSim.setDsAttached(true);
+    DriverStationSim.setJoystickAxisCount(0, 6);
+    DriverStationSim.setJoystickButtonCount(0, 10);
+    DriverStationSim.setJoystickPOVCount(0, 1);
+
+    int totalLoops = 0;
+    for (Segment segment : scenario.getSegments()) {
+      totalLoops += loopCount(segment);
+    }
+    long[] stepNanos = new long[totalLoops];
+    long startAllocated = getRobotAllocatedBytes();
+    long startGcCount = getGcCount();
+    long startGcMillis = getGcMillis();
+    long startNanos = System.nanoTime();
+
+    int loop = 0;
+    for (Segment segment : scenario.getSegments()) {
+      System.out.println("[HeadlessSim] " + segment.name());
+      DriverStationSim.setEnabled(segment.mode() != RobotMode.DISABLED);
+      DriverStationSim.setAutonomous(segment.mode() == RobotMode.AUTONOMOUS);
+      DriverStationSim.setTest(false);
+      for (int i = 0; i < loopCount(segment); i++) {
+        double time = i * loopPeriodSecs;
+        DriverStationSim.setMatchTime(Math.max(segment.durationSecs() - time, 0.0));
+        segment.inputs().accept(time);
+        DriverStationSim.notifyNewData();
+
+        long stepStart = System.nanoTime();
+        SimHooks.stepTiming(loopPeriodSecs);
+        stepNanos[loop++] = System.nanoTime() - stepStart;
+      }
+    }
+
+    double wallSecs = (System.nanoTime() - startNanos) / 1e9;
+    long allocated = getRobotAllocatedBytes() - startAllocated;
+    printReport(
+        stepNanos,
+        wallSecs,
+        allocated,
+        getGcCount() - startGcCount,
+        getGcMillis() - startGcMillis);
+    if (getLogPath() != null) {
+      // The robot loop is blocked until the next step, so the log can be closed safely
+      Logger.end();
+    }
+    System.exit(0);
+  }
+
+  private void printReport(
+      long[] stepNanos, double wallSecs, long allocatedBytes, long gcCount, long gcMillis) {
+    double simSecs = stepNanos.length * loopPeriodSecs;
+    // Steps that took longer than the simulated loop period
+    long overruns = Arrays.stream(stepNanos).filter(nanos -> nanos > loopPeriodSecs * 1e9).count();
+    Arrays.sort(stepNanos);
+    System.out.printf(
+        "[HeadlessSim] Scenario \"%s\": %d loops (%.1f s simulated) in %.1f s, %.1fx real time%n",
+        scenario.getName(), stepNanos.length, simSecs, wallSecs, simSecs / wallSecs);
+    System.out.printf(
+        "[HeadlessSim] Step time: p50 %.3f ms, p99 %.3f ms, max %.3f ms, %d overruns%n",
+        percentile(stepNanos, 0.5) / 1e6,
+        percentile(stepNanos, 0.99) / 1e6,
+        percentile(stepNanos, 1.0) / 1e6,
+        overruns);
+    System.out.printf(
+        "[HeadlessSim] Robot thread allocation: %.1f KB/loop, %.1f MB total%n",
+        allocatedBytes / 1024.0 / Math.max(stepNanos.length, 1), allocatedBytes / 1048576.0);
+    System.out.printf("[HeadlessSim] GC: %d collections, %d ms%n", gcCount, gcMillis);
+  }
+
+  private static int loopCount(Segment segment) {
+    return (int) Math.round(segment.durationSecs() / loopPeriodSecs);
+  }
+
+  /** Returns the value at the percentile of a sorted array. */
+  private static long percentile(long[] sorted, double percentile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(sorted.length * percentile) - 1;
+    return sorted[Math.min(Math.max(index, 0), sorted.length - 1)];
+  }
+
+  private long getRobotAllocatedBytes() {
+    return threadBean.isThreadAllocatedMemoryEnabled()
+        ? threadBean.getThreadAllocatedBytes(robotThreadId)
+        : 0;
+  }
+
+  private static long getGcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(bean.getCollectionCount(), 0);
+    }
+    return count;
+  }
+
+  private static long getGcMillis() {
+    long millis = 0;
+    for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+      millis += Math.max(bean.getCollectionTime(), 0);
+    }
+    return millis;
+  }
+}
@@ -0,0 +1,107 @@
+// Copyright (c) 2023 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Lock-free histogram of durations with log-linear buckets, similar to an HDR histogram.
+ *
+ * <p>Durations are stored in microseconds with 16 buckets per power of two, giving roughly 6%
+ * precision from 1 microsecond up to about 30 minutes. Any thread may record values. A single
+ * thread periodically publishes a summary, which also resets the histogram.
+ */
+public class LatencyHistogram {
+  private static final int subBucketBits = 4;
+  private static final int subBucketCount = 1 << subBucketBits;
+  private static final int maxExponent = 30;
+  private static final int bucketCount = (maxExponent - subBucketBits + 2) * subBucketCount;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(bucketCount);
+  private final AtomicLong maxMicros = new AtomicLong();
+  private final long[] counts = new long[bucketCount]; // Only used by the publishing thread
+
+  private final String p50Key;
+  private final String p99Key;
+  private final String maxKey;
+  private final String countKey;
+
+  /**
+   * Creates a new histogram.
+   *
+   * @param key The output key to publish summaries under.
+   */
+  public LatencyHistogram(String key) {
+    p50Key = key + "/P50Ms";
+    p99Key = key + "/P99Ms";
+    maxKey = key + "/MaxMs";
+    countKey = key + "/Count";
+  }
+
+  /** Records a duration in nanoseconds. Negative durations are recorded as zero. */
+  public void record(long nanos) {
+    long micros = Math.min(Math.max(nanos / 1000, 0), (1L << (maxExponent + 1)) - 1);
+    buckets.incrementAndGet(bucketIndex(micros));
+    maxMicros.accumulateAndGet(micros, Math::max);
+  }
+
+  /**
+   * Logs the median, 99th percentile, maximum, and count of the durations recorded since the last
+   * call, then resets the histogram. Only called from one thread.
+   */
+  public void publish() {
+    long total = 0;
+    for (int i = 0; i < bucketCount; i++) {
+      counts[i] = buckets.getAndSet(i, 0);
+      total += counts[i];
+    }
+    long max = maxMicros.getAndSet(0);
+
+    Logger.recordOutput(p50Key, percentile(total, 0.5) / 1e3);
+    Logger.recordOutput(p99Key, percentile(total, 0.99) / 1e3);
+    Logger.recordOutput(maxKey, max / 1e3);
+    Logger.recordOutput(countKey, total);
+  }
+
+  /** Returns the representative value of the bucket containing the percentile, in microseconds. */
+  private double percentile(long total, double percentile) {
+    if (total == 0) {
+      return 0.0;
+    }
+    long target = (long) Math.ceil(total * percentile);
+    long seen = 0;
+    for (int i = 0; i < bucketCount; i++) {
+      seen += counts[i];
+      if (seen >= target) {
+        return bucketValue(i);
+      }
+    }
+    return bucketValue(bucketCount - 1);
+  }
+
+  private static int bucketIndex(long micros) {
+    if (micros < subBucketCount) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int subBucket = (int) (micros >> (exponent - subBucketBits)) & (subBucketCount - 1);
+    return (exponent - subBucketBits + 1) * subBucketCount + subBucket;
+  }
+
+  private static double bucketValue(int index) {
+    if (index < subBucketCount) {
+      return index;
+    }
+    int exponent = index / subBucketCount + subBucketBits - 1;
+    int subBucket = index % subBucketCount;
+    long width = 1L << (exponent - subBucketBits);
+    return ((subBucketCount + subBucket) * width) + width / 2.0;
+  }
+}
@@ -565,9 +565,11 @@ public class LimelightHelpers {
         LimelightHelpers.getLimelightDoubleArrayEntry(limelightName, entryName);
 
     TimestampedDoubleArray tsValue = poseEntry.getAtomic();
-    double[] poseArray = tsValue.value;
-    long timestamp = tsValue.timestamp;
+    return toPoseEstimate(tsValue.value, tsValue.timestamp, isMegaTag2);
+  }
 
+  /** Parses a botpose array received at the provided NetworkTables timestamp in microseconds. */
+  static PoseEstimate toPoseEstimate(double[] poseArray, long timestamp, boolean isMegaTag2) {
     if (poseArray.length == 0) {
       // Handle the case where no data is available
       return null; // or some default PoseEstimate
@@ -1263,25 +1265,31 @@ public class LimelightHelpers {
   public static LimelightResults getLatestResults(String limelightName) {
 
     long start = System.nanoTime();
-    LimelightHelpers.LimelightResults results = new LimelightHelpers.LimelightResults();
+    LimelightHelpers.LimelightResults results = parseResults(getJSONDump(limelightName));
+
+    long end = System.nanoTime();
+    double millis = (end - start) * .000001;
+    results.latency_jsonParse = millis;
+    if (profileJSON) {
+      System.out.printf("lljson: %.2f\r\n", millis);
+    }
+
+    return results;
+  }
+
+  /** Parses a JSON results dump into a LimelightResults Object */
+  static LimelightResults parseResults(String json) {
     if (mapper == null) {
       mapper =
           new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
     }
 
+    LimelightResults results = new LimelightResults();
     try {
-      results = mapper.readValue(getJSONDump(limelightName), LimelightResults.class);
+      results = mapper.readValue(json, LimelightResults.class);
     } catch (JsonProcessingException e) {
       results.error = "lljson error: " + e.getMessage();
     }
-
-    long end = System.nanoTime();
-    double millis = (end - start) * .000001;
-    results.latency_jsonParse = millis;
-    if (profileJSON) {
-      System.out.printf("lljson: %.2f\r\n", millis);
-    }
-
     return results;
   }
 }
@@ -0,0 +1,144 @@
+// Copyright (c) 2023 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.CommandScheduler;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Times named sections of the main loop, such as each subsystem's periodic method and each
+ * command's execute method.
+ *
+ * <p>Time spent in a section is summed over each cycle, so a section may be entered more than once
+ * per cycle. At the end of every cycle the totals are recorded in a {@link LatencyHistogram} per
+ * section, and the median, 99th percentile and maximum are logged under "LoopProfiler" once per
+ * second. Timing a section costs two calls to {@link System#nanoTime()}, so the profiler can stay
+ * enabled in competition.
+ *
+ * <p>Commands are timed from the end of button polling or the previous command's execute until
+ * their own execute finishes, so each command also includes the previous command's end check.
+ * Commands with the same name share a section.
+ *
+ * <p>Not thread-safe, only used from the main loop.
+ */
+public class LoopProfiler {
+  private static final double summaryPeriodSecs = 1.0;
+
+  /** A timed section of the main loop. */
+  public static class Section {
+    private final LatencyHistogram histogram;
+    private long cycleNanos = 0;
+    private boolean ran = false;
+
+    private Section(String name) {
+      histogram = new LatencyHistogram("LoopProfiler/" + name);
+    }
+
+    /** Returns the start time to pass to {@link #end(long)}. */
+    public long start() {
+      return System.nanoTime();
+    }
+
+    /**
+     * Adds the time since the provided start time to this cycle's total.
+     *
+     * @param startNanos The value returned by {@link #start()}.
+     */
+    public void end(long startNanos) {
+      add(System.nanoTime() - startNanos);
+    }
+
+    private void add(long nanos) {
+      cycleNanos += nanos;
+      ran = true;
+    }
+  }
+
+  private final Map<String, Section> sections = new HashMap<>();
+  private final List<Section> sectionList = new ArrayList<>();
+  private final Map<String, Section> commandSections = new HashMap<>();
+  private boolean commandsBound = false;
+  private long commandMarkNanos = 0;
+  private double lastSummaryTimestamp = 0.0;
+
+  private static LoopProfiler instance = null;
+
+  public static synchronized LoopProfiler getInstance() {
+    if (instance == null) {
+      instance = new LoopProfiler();
+    }
+    return instance;
+  }
+
+  private LoopProfiler() {}
+
+  /**
+   * Returns the section with the provided name, creating it if necessary. Sections should be
+   * looked up once and stored rather than looked up every cycle.
+   *
+   * @param name The name of the section, logged as "LoopProfiler/{name}".
+   */
+  public Section section(String name) {
+    return sections.computeIfAbsent(
+        name,
+        key -> {
+          Section section = new Section(key);
+          sectionList.add(section);
+          return section;
+        });
+  }
+
+  /**
+   * Starts timing the execute method of every scheduled command. Call once, after all button
+   * bindings are created, so the timing starts after every binding has been polled.
+   */
+  public void bindCommands() {
+    if (commandsBound) {
+      return;
+    }
+    commandsBound = true;
+    CommandScheduler scheduler = CommandScheduler.getInstance();
+    scheduler.getDefaultButtonLoop().bind(() -> commandMarkNanos = System.nanoTime());
+    scheduler.onCommandExecute(this::recordCommand);
+  }
+
+  private void recordCommand(Command command) {
+    long now = System.nanoTime();
+    Section section = commandSections.get(command.getName());
+    if (section == null) {
+      section = section("Commands/" + command.getName());
+      commandSections.put(command.getName(), section);
+    }
+    section.add(now - commandMarkNanos);
+    commandMarkNanos = now;
+  }
+
+  /** Records this cycle's totals and logs the summaries once per second. Call once per cycle. */
+  public void periodic() {
+    for (Section section : sectionList) {
+      if (section.ran) {
+        section.histogram.record(section.cycleNanos);
+        section.cycleNanos = 0;
+        section.ran = false;
+      }
+    }
+
+    double timestamp = Logger.getRealTimestamp() / 1e6;
+    if (timestamp - lastSummaryTimestamp >= summaryPeriodSecs) {
+      lastSummaryTimestamp = timestamp;
+      for (Section section : sectionList) {
+        section.histogram.publish();
+      }
+    }
+  }
+}
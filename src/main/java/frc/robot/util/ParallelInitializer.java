@@ -0,0 +1,215 @@
+// Copyright (c) 2023 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import frc.robot.util.Alert.AlertType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Constructs independent hardware IO implementations concurrently during startup.
+ *
+ * <p>Device constructors spend most of their time blocked on CAN configuration writes, so running
+ * them in parallel shortens boot time. Every device shares a single deadline. A device that fails
+ * or is not ready by the deadline is replaced with its fallback (typically a disabled IO
+ * implementation) and reported with an alert, so a missing device cannot hold up the robot. The
+ * time taken by each device is logged under "Init".
+ *
+ * <p>Constructors run on background threads, so they must only use thread-safe shared state. A
+ * constructor that misses the deadline is interrupted, but may keep running while blocked on CAN.
+ * Constructors therefore wrap their registrations with shared state (signal registries, output
+ * lists) in {@link #register(Runnable)} or {@link #registerAndGet(Supplier)}, which refuse to run
+ * once the device has been replaced by its fallback. Registrations that would keep affecting the
+ * robot after the device is replaced (such as signals a CAN bus waits on) also provide a rollback,
+ * which is run when the device is abandoned.
+ */
+public class ParallelInitializer {
+  private static final int threadCount = 4;
+  private static final ThreadLocal<Device<?>> currentDevice = new ThreadLocal<>();
+
+  /** Handle to a device being constructed. */
+  public static class Device<T> {
+    private final String name;
+    private final T fallback;
+    private Future<T> future = null;
+    private volatile long durationNanos = -1;
+    private T result = null;
+    private boolean abandoned = false; // Guarded by this device
+    private final List<Runnable> rollbacks = new ArrayList<>(); // Guarded by this device
+
+    private Device(String name, T fallback) {
+      this.name = name;
+      this.fallback = fallback;
+    }
+
+    /**
+     * Returns the constructed device, or the fallback if it failed or missed the deadline. Only
+     * valid after {@link ParallelInitializer#await()}.
+     */
+    public T get() {
+      return result;
+    }
+  }
+
+  private final double deadlineSecs;
+  private final ExecutorService executor =
+      Executors.newFixedThreadPool(
+          threadCount,
+          runnable -> {
+            Thread thread = new Thread(runnable, "ParallelInitializer");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private final List<Device<?>> devices = new ArrayList<>();
+  private final long startNanos = System.nanoTime();
+
+  /**
+   * Creates a new initializer.
+   *
+   * @param deadlineSecs Time allowed for every device to finish, measured from construction.
+   */
+  public ParallelInitializer(double deadlineSecs) {
+    this.deadlineSecs = deadlineSecs;
+  }
+
+  /**
+   * Starts constructing a device in the background.
+   *
+   * @param name Name used for logging and alerts.
+   * @param constructor Constructs the device.
+   * @param fallback Used in place of the device if construction fails or misses the deadline.
+   * @return A handle to the device, which can be read after {@link #await()}.
+   */
+  public <T> Device<T> submit(String name, Supplier<T> constructor, T fallback) {
+    Device<T> device = new Device<>(name, fallback);
+    device.future =
+        executor.submit(
+            () -> {
+              long start = System.nanoTime();
+              currentDevice.set(device);
+              try {
+                T result = constructor.get();
+                device.durationNanos = System.nanoTime() - start;
+                return result;
+              } finally {
+                currentDevice.remove();
+              }
+            });
+    devices.add(device);
+    return device;
+  }
+
+  /**
+   * Runs a registration with shared state from a device constructor, unless the device has already
+   * been replaced by its fallback. Runs immediately when called outside of an initializer.
+   *
+   * @param registration Registers the device, e.g. with a signal registry.
+   * @throws CancellationException If the device missed the deadline, which ends its constructor.
+   */
+  public static void register(Runnable registration) {
+    registerAndGet(
+        () -> {
+          registration.run();
+          return null;
+        });
+  }
+
+  /**
+   * Runs a registration with shared state from a device constructor and returns its result, unless
+   * the device has already been replaced by its fallback. Runs immediately when called outside of
+   * an initializer.
+   *
+   * @param registration Registers the device and returns a handle, e.g. a sample channel.
+   * @throws CancellationException If the device missed the deadline, which ends its constructor.
+   */
+  public static <R> R registerAndGet(Supplier<R> registration) {
+    return registerAndGet(registration, result -> {});
+  }
+
+  /**
+   * Runs a registration with shared state from a device constructor and returns its result, unless
+   * the device has already been replaced by its fallback. If the device is replaced later, the
+   * rollback is run with the result. Runs immediately without a rollback when called outside of an
+   * initializer.
+   *
+   * @param registration Registers the device and returns a handle, e.g. a sample channel.
+   * @param rollback Undoes the registration, given its result.
+   * @throws CancellationException If the device missed the deadline, which ends its constructor.
+   */
+  public static <R> R registerAndGet(Supplier<R> registration, Consumer<R> rollback) {
+    Device<?> device = currentDevice.get();
+    if (device == null) {
+      return registration.get();
+    }
+    // Holding the lock keeps the device from being abandoned partway through a registration
+    synchronized (device) {
+      if (device.abandoned) {
+        throw new CancellationException("Initialization abandoned: " + device.name);
+      }
+      R result = registration.get();
+      device.rollbacks.add(() -> rollback.accept(result));
+      return result;
+    }
+  }
+
+  /**
+   * Waits for every device until the deadline, substituting fallbacks for devices that are not
+   * ready, then logs the init timing. Only called once, from the main thread.
+   */
+  public void await() {
+    long deadlineNanos = startNanos + (long) (deadlineSecs * 1e9);
+    for (Device<?> device : devices) {
+      resolve(device, deadlineNanos);
+    }
+    // Every device is either done or abandoned, so interrupt any constructor still running
+    executor.shutdownNow();
+    Logger.recordOutput("Init/TotalMs", (System.nanoTime() - startNanos) / 1e6);
+  }
+
+  private <T> void resolve(Device<T> device, long deadlineNanos) {
+    String error = null;
+    try {
+      long remainingNanos = Math.max(deadlineNanos - System.nanoTime(), 0);
+      device.result = device.future.get(remainingNanos, TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      error = "Initialization timed out: " + device.name;
+    } catch (ExecutionException e) {
+      error = "Initialization failed: " + device.name + " (" + e.getCause() + ")";
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      error = "Initialization interrupted: " + device.name;
+    }
+
+    if (error != null) {
+      // Stop the constructor before using the fallback, so it cannot register afterwards
+      synchronized (device) {
+        device.abandoned = true;
+        for (Runnable rollback : device.rollbacks) {
+          rollback.run();
+        }
+        device.rollbacks.clear();
+      }
+      device.future.cancel(true);
+      device.result = device.fallback;
+      new Alert(error, AlertType.ERROR).set(true);
+      Logger.recordOutput("Init/" + device.name + "Ms", -1.0);
+    } else {
+      Logger.recordOutput("Init/" + device.name + "Ms", device.durationNanos / 1e6);
+    }
+  }
+}
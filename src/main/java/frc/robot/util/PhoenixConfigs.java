@@ -0,0 +1,99 @@
+// Copyright (c) 2023 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import com.ctre.phoenix6.StatusCode;
+import com.ctre.phoenix6.configs.ParentConfiguration;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Applies Phoenix 6 configurations only when they differ from what the device already has.
+ *
+ * <p>The device's current configuration is read back and compared to the desired one field by
+ * field. Reading back is a single request, while applying a full configuration writes every group
+ * and waits for each to be acknowledged, so skipping unchanged configurations shortens boot. The
+ * device stores numeric values with limited precision, so numbers only need to match within a
+ * small tolerance (otherwise gains that are not round numbers would be applied on every boot). Any
+ * other difference falls back to a normal apply.
+ */
+public final class PhoenixConfigs {
+  private static final double absoluteTolerance = 1e-6;
+  private static final double relativeTolerance = 1e-4;
+
+  private static final AtomicInteger appliedCount = new AtomicInteger();
+  private static final AtomicInteger skippedCount = new AtomicInteger();
+
+  private PhoenixConfigs() {}
+
+  /**
+   * Applies a configuration unless the device already has it. Safe to call from any thread.
+   *
+   * @param desired The configuration to apply.
+   * @param current An empty configuration of the same type, which is filled by the read back.
+   * @param refresh Reads the device's configuration into the provided object, e.g.
+   *     "talon.getConfigurator()::refresh".
+   * @param apply Applies the provided configuration, e.g. "talon.getConfigurator()::apply".
+   * @return The status of the apply, or OK if it was skipped.
+   */
+  public static <T extends ParentConfiguration> StatusCode applyIfChanged(
+      T desired, T current, Function<T, StatusCode> refresh, Function<T, StatusCode> apply) {
+    if (refresh.apply(current).isOK() && matches(desired, current)) {
+      skippedCount.incrementAndGet();
+      return StatusCode.OK;
+    }
+    appliedCount.incrementAndGet();
+    return apply.apply(desired);
+  }
+
+  /**
+   * Returns whether two configurations of the same type match, comparing numeric fields within the
+   * tolerance and recursing into nested configuration groups.
+   */
+  static boolean matches(Object desired, Object current) {
+    for (Field field : desired.getClass().getFields()) {
+      if (Modifier.isStatic(field.getModifiers())) {
+        continue;
+      }
+      Object desiredValue;
+      Object currentValue;
+      try {
+        desiredValue = field.get(desired);
+        currentValue = field.get(current);
+      } catch (IllegalAccessException e) {
+        return false;
+      }
+      if (desiredValue instanceof Double desiredNumber && currentValue instanceof Double number) {
+        double tolerance =
+            Math.max(
+                absoluteTolerance,
+                relativeTolerance * Math.max(Math.abs(desiredNumber), Math.abs(number)));
+        if (!(Math.abs(desiredNumber - number) <= tolerance)) {
+          return false;
+        }
+      } else if (desiredValue instanceof ParentConfiguration && currentValue != null) {
+        if (!matches(desiredValue, currentValue)) {
+          return false;
+        }
+      } else if (!Objects.equals(desiredValue, currentValue)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Logs the number of configurations applied and skipped. Only called from the main thread. */
+  public static void logCounts() {
+    Logger.recordOutput("Init/ConfigsApplied", appliedCount.get());
+    Logger.recordOutput("Init/ConfigsSkipped", skippedCount.get());
+  }
+}
@@ -0,0 +1,133 @@
+// Copyright (c) 2023 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import edu.wpi.first.wpilibj.XboxController;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+import java.util.List;
+import java.util.function.DoubleConsumer;
+
+/**
+ * A scripted sequence of robot modes and controller inputs, run by {@link HeadlessSimRunner}.
+ *
+ * <p>Each segment runs in one mode for a fixed time. Its input script is called before every loop
+ * with the time since the segment started, and sets the driver controller (port 0) through {@link
+ * DriverStationSim}.
+ */
+public class SimScenario {
+  private static final int controllerPort = 0;
+
+  /** Robot modes a segment can run in. */
+  public enum RobotMode {
+    DISABLED,
+    AUTONOMOUS,
+    TELEOP
+  }
+
+  /**
+   * One part of a scenario.
+   *
+   * @param name Name printed in the report.
+   * @param mode The robot mode to run in.
+   * @param durationSecs How long to run, in simulated seconds.
+   * @param inputs Sets the controller inputs, given the time since the segment started.
+   */
+  public record Segment(String name, RobotMode mode, double durationSecs, DoubleConsumer inputs) {}
+
+  private final String name;
+  private final List<Segment> segments;
+
+  private SimScenario(String name, List<Segment> segments) {
+    this.name = name;
+    this.segments = segments;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public List<Segment> getSegments() {
+    return segments;
+  }
+
+  /**
+   * Returns the scenario with the provided name.
+   *
+   * @param name "match", "auto", "teleop" or "golden" (a short drive recorded as a golden replay
+   *     log).
+   * @throws IllegalArgumentException If there is no scenario with the name.
+   */
+  public static SimScenario forName(String name) {
+    return switch (name) {
+      case "match" -> new SimScenario(
+          name,
+          List.of(
+              idle("Pre-match", 2.0),
+              auto(15.0),
+              idle("Auto to teleop", 1.0),
+              teleop(135.0),
+              idle("Post-match", 2.0)));
+      case "auto" -> new SimScenario(name, List.of(idle("Pre-match", 2.0), auto(15.0)));
+      case "teleop" -> new SimScenario(name, List.of(idle("Pre-match", 2.0), teleop(135.0)));
+      case "golden" -> new SimScenario(name, List.of(idle("Pre-match", 1.0), teleop(15.0)));
+      default -> throw new IllegalArgumentException("Unknown sim scenario: " + name);
+    };
+  }
+
+  private static Segment idle(String name, double durationSecs) {
+    return new Segment(name, RobotMode.DISABLED, durationSecs, time -> releaseAll());
+  }
+
+  private static Segment auto(double durationSecs) {
+    return new Segment("Autonomous", RobotMode.AUTONOMOUS, durationSecs, time -> releaseAll());
+  }
+
+  /**
+   * Drives in a slow figure eight, cycling through the driver bindings: heading control, the
+   * multi-distance shot, the drive mode toggle, and resetting the start pose.
+   */
+  private static Segment teleop(double durationSecs) {
+    return new Segment(
+        "Teleop",
+        RobotMode.TELEOP,
+        durationSecs,
+        time -> {
+          double phase = time % 30.0;
+          setAxis(XboxController.Axis.kLeftY, -0.8 * Math.sin(time * 0.4));
+          setAxis(XboxController.Axis.kLeftX, -0.6 * Math.sin(time * 0.8));
+          setAxis(XboxController.Axis.kRightX, phase < 10.0 ? 0.3 * Math.cos(time) : 0.0);
+          setButton(XboxController.Button.kB, phase >= 10.0 && phase < 15.0);
+          setButton(XboxController.Button.kLeftBumper, phase >= 15.0 && phase < 15.1);
+          setButton(XboxController.Button.kY, phase >= 29.9);
+          setPOV(phase >= 20.0 && phase < 25.0 ? 0 : -1);
+        });
+  }
+
+  /** Centers every axis and releases every button. */
+  private static void releaseAll() {
+    for (XboxController.Axis axis : XboxController.Axis.values()) {
+      setAxis(axis, 0.0);
+    }
+    for (XboxController.Button button : XboxController.Button.values()) {
+      setButton(button, false);
+    }
+    setPOV(-1);
+  }
+
+  private static void setAxis(XboxController.Axis axis, double value) {
+    DriverStationSim.setJoystickAxis(controllerPort, axis.value, value);
+  }
+
+  private static void setPOV(int angle) {
+    DriverStationSim.setJoystickPOV(controllerPort, 0, angle);
+  }
+
+  private static void setButton(XboxController.Button button, boolean pressed) {
+    DriverStationSim.setJoystickButton(controllerPort, button.value, pressed);
+  }
+}
@@ -0,0 +1,233 @@
+// Copyright (c) 2023 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import static frc.robot.subsystems.drive.DriveConstants.odometryFrequency;
+
+import com.ctre.phoenix6.BaseStatusSignal;
+import com.ctre.phoenix6.CANBus;
+import com.ctre.phoenix6.StatusCode;
+import com.ctre.phoenix6.hardware.ParentDevice;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Owns the update frequency of every Phoenix 6 status signal, retuning them when the robot mode
+ * changes, and refreshes them all once per loop.
+ *
+ * <p>Signals are registered with a {@link SignalClass}, which declares the frequency to use in each
+ * {@link Phase}. On every phase change the frequencies are reapplied and every registered device
+ * has its bus utilization optimized, which turns off any frame that was not registered. The writes
+ * are made through the {@link DeviceConfigExecutor}, so a mode change never blocks the main loop.
+ * The projected bus load of the registered signals and the measured load reported by Phoenix are
+ * logged under "CAN".
+ *
+ * <p>{@link #refreshAll()} refreshes every registered signal with a single call per bus at the
+ * start of the loop, so IO implementations only read the cached values instead of each making their
+ * own call.
+ */
+public class StatusSignalRegistry {
+  private static final double summaryPeriodSecs = 1.0;
+  // Rough time on the bus for one status frame, assuming every signal is sent in its own frame
+  private static final double canFrameSecs = 130e-6;
+  private static final double canFDFrameSecs = 50e-6;
+
+  /** Robot modes with separate frequency profiles. */
+  public enum Phase {
+    DISABLED,
+    AUTO,
+    TELEOP,
+    SYSID
+  }
+
+  /** Groups of signals that share a frequency profile. */
+  public enum SignalClass {
+    /** Positions sampled for odometry. Never faster than the odometry frequency. */
+    ODOMETRY(50.0, odometryFrequency, odometryFrequency * 0.8, odometryFrequency),
+    /** Feedback used by control loops and characterization. */
+    CONTROL(10.0, 100.0, 50.0, 100.0),
+    /** Diagnostics such as currents and absolute encoder positions. */
+    TELEMETRY(4.0, 50.0, 50.0, 50.0);
+
+    private final double[] frequencies;
+
+    SignalClass(double disabledHz, double autoHz, double teleopHz, double sysIdHz) {
+      frequencies = new double[] {disabledHz, autoHz, teleopHz, sysIdHz};
+    }
+
+    /** Returns the update frequency in Hz for the provided phase. */
+    public double getFrequency(Phase phase) {
+      return frequencies[phase.ordinal()];
+    }
+  }
+
+  /** Signals and devices on a single CAN bus. */
+  private static class Bus {
+    final String name;
+    final boolean isCANFD;
+    final Map<SignalClass, List<BaseStatusSignal>> signals = new EnumMap<>(SignalClass.class);
+    final List<ParentDevice> devices = new ArrayList<>();
+    final String projectedKey;
+    final String projectedFramesKey;
+    final String measuredKey;
+    double projectedFramesPerSec = 0.0;
+
+    Bus(String name) {
+      this.name = name;
+      isCANFD = CANBus.isNetworkFD(name);
+      for (SignalClass signalClass : SignalClass.values()) {
+        signals.put(signalClass, new ArrayList<>());
+      }
+      projectedKey = "CAN/" + name + "/ProjectedUtilization";
+      projectedFramesKey = "CAN/" + name + "/ProjectedFramesPerSec";
+      measuredKey = "CAN/" + name + "/Utilization";
+    }
+  }
+
+  private final Map<String, Bus> buses = new LinkedHashMap<>(); // Guarded by "this"
+  // One array per bus, replaced as a whole so the main loop never needs a lock
+  private volatile BaseStatusSignal[][] refreshGroups = new BaseStatusSignal[0][];
+  private Phase phase = Phase.DISABLED; // Guarded by "this"
+  private volatile double odometryFrequency = SignalClass.ODOMETRY.getFrequency(Phase.DISABLED);
+  private double lastSummaryTimestamp = 0.0;
+
+  private static StatusSignalRegistry instance = null;
+
+  public static synchronized StatusSignalRegistry getInstance() {
+    if (instance == null) {
+      instance = new StatusSignalRegistry();
+    }
+    return instance;
+  }
+
+  private StatusSignalRegistry() {}
+
+  /**
+   * Registers signals from a device and applies the frequency for the current phase. Safe to call
+   * from any thread, blocks while the frequency is applied.
+   *
+   * @param device The device that owns the signals.
+   * @param signalClass The frequency profile to use.
+   * @param signals The signals to register.
+   */
+  public void register(ParentDevice device, SignalClass signalClass, BaseStatusSignal... signals) {
+    double frequency;
+    synchronized (this) {
+      String network = device.getNetwork();
+      Bus bus = buses.computeIfAbsent(network.isEmpty() ? "rio" : network, Bus::new);
+      bus.signals.get(signalClass).addAll(List.of(signals));
+      if (!bus.devices.contains(device)) {
+        bus.devices.add(device);
+      }
+      frequency = signalClass.getFrequency(phase);
+      updateProjection(bus);
+      updateRefreshGroups();
+    }
+    BaseStatusSignal.setUpdateFrequencyForAll(frequency, signals);
+  }
+
+  /** Returns the update frequency in Hz of odometry signals in the current phase. */
+  public double getOdometryFrequency() {
+    return odometryFrequency;
+  }
+
+  /**
+   * Switches to the profile for a new phase. Frequencies are reapplied and unregistered frames are
+   * turned off in the background. Only called from the main thread.
+   */
+  public void setPhase(Phase newPhase) {
+    List<Supplier<StatusCode>> writes = new ArrayList<>();
+    synchronized (this) {
+      phase = newPhase;
+      odometryFrequency = SignalClass.ODOMETRY.getFrequency(newPhase);
+      for (Bus bus : buses.values()) {
+        for (var entry : bus.signals.entrySet()) {
+          BaseStatusSignal[] signals = entry.getValue().toArray(BaseStatusSignal[]::new);
+          double frequency = entry.getKey().getFrequency(newPhase);
+          if (signals.length > 0) {
+            writes.add(() -> BaseStatusSignal.setUpdateFrequencyForAll(frequency, signals));
+          }
+        }
+        for (ParentDevice device : bus.devices) {
+          writes.add(device::optimizeBusUtilization);
+        }
+        updateProjection(bus);
+      }
+    }
+    Logger.recordOutput("CAN/Phase", newPhase.toString());
+    if (writes.isEmpty()) {
+      return;
+    }
+
+    // Coalesced by key, so only the newest phase is applied if modes change quickly
+    DeviceConfigExecutor.getInstance()
+        .submit(
+            "StatusSignalProfile",
+            () -> {
+              boolean success = true;
+              for (Supplier<StatusCode> write : writes) {
+                success &= write.get().isOK();
+              }
+              return success;
+            });
+  }
+
+  /**
+   * Refreshes every registered signal, with one call per bus. Call once at the start of the loop,
+   * before any IO reads its signals. Only called from the main thread.
+   */
+  public void refreshAll() {
+    for (BaseStatusSignal[] signals : refreshGroups) {
+      BaseStatusSignal.refreshAll(signals);
+    }
+  }
+
+  /** Logs the projected and measured bus utilization once per second. */
+  public void periodic() {
+    double timestamp = Logger.getRealTimestamp() / 1e6;
+    if (timestamp - lastSummaryTimestamp < summaryPeriodSecs) {
+      return;
+    }
+    lastSummaryTimestamp = timestamp;
+
+    synchronized (this) {
+      for (Bus bus : buses.values()) {
+        double frameSecs = bus.isCANFD ? canFDFrameSecs : canFrameSecs;
+        Logger.recordOutput(bus.projectedFramesKey, bus.projectedFramesPerSec);
+        Logger.recordOutput(bus.projectedKey, bus.projectedFramesPerSec * frameSecs);
+        Logger.recordOutput(bus.measuredKey, CANBus.getStatus(bus.name).BusUtilization);
+      }
+    }
+  }
+
+  private void updateRefreshGroups() {
+    BaseStatusSignal[][] groups = new BaseStatusSignal[buses.size()][];
+    int i = 0;
+    for (Bus bus : buses.values()) {
+      List<BaseStatusSignal> signals = new ArrayList<>();
+      for (List<BaseStatusSignal> classSignals : bus.signals.values()) {
+        signals.addAll(classSignals);
+      }
+      groups[i++] = signals.toArray(BaseStatusSignal[]::new);
+    }
+    refreshGroups = groups;
+  }
+
+  private void updateProjection(Bus bus) {
+    double framesPerSec = 0.0;
+    for (var entry : bus.signals.entrySet()) {
+      framesPerSec += entry.getKey().getFrequency(phase) * entry.getValue().size();
+    }
+    bus.projectedFramesPerSec = framesPerSec;
+  }
+}
@@ -0,0 +1,137 @@
+// Copyright (c) 2023 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import com.ctre.phoenix6.StatusCode;
+import com.ctre.phoenix6.controls.ControlRequest;
+import com.ctre.phoenix6.controls.PositionVoltage;
+import com.ctre.phoenix6.controls.VelocityVoltage;
+import com.ctre.phoenix6.controls.VoltageOut;
+import com.ctre.phoenix6.hardware.TalonFX;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.littletonrobotics.junction.Logger;
+
+/**
+ * Sends control requests to a Talon FX without allocating, skipping requests that match the last
+ * one sent.
+ *
+ * <p>Each request type is cached and mutated in place. A request is only sent when its type
+ * changes or its setpoint or feedforward moves by more than the tolerance. Phoenix keeps repeating
+ * the last request sent to the device, so skipping a redundant request does not affect the output.
+ * The number of requests sent and suppressed is logged each cycle by {@link #logAll()}.
+ *
+ * <p>Not thread-safe, requests should only be sent from the main loop.
+ */
+public class TalonFXOutput {
+  private static final double defaultTolerance = 1e-4;
+  private static final List<TalonFXOutput> outputs = new CopyOnWriteArrayList<>();
+
+  private final TalonFX talon;
+  private final double tolerance;
+  private final String sentKey;
+  private final String suppressedKey;
+
+  private final VoltageOut voltageRequest = new VoltageOut(0.0);
+  private final VelocityVoltage velocityRequest = new VelocityVoltage(0.0);
+  private final PositionVoltage positionRequest = new PositionVoltage(0.0);
+  private ControlRequest lastRequest = null; // Null if the next request must be sent
+  private double lastSetpoint = 0.0;
+  private double lastFeedforward = 0.0;
+
+  private long sentCount = 0;
+  private long suppressedCount = 0;
+
+  /**
+   * Creates a new output with the default tolerance.
+   *
+   * @param talon The Talon FX to control.
+   */
+  public TalonFXOutput(TalonFX talon) {
+    this(talon, defaultTolerance);
+  }
+
+  /**
+   * Creates a new output.
+   *
+   * @param talon The Talon FX to control.
+   * @param tolerance The largest change in setpoint or feedforward that is not sent, in the units
+   *     of the request (volts, rotations/sec, or rotations).
+   */
+  public TalonFXOutput(TalonFX talon, double tolerance) {
+    this.talon = talon;
+    this.tolerance = tolerance;
+    String network = talon.getNetwork().isEmpty() ? "rio" : talon.getNetwork();
+    String key = "Actuation/" + network + "/TalonFX" + talon.getDeviceID();
+    sentKey = key + "/Sent";
+    suppressedKey = key + "/Suppressed";
+    outputs.add(this);
+  }
+
+  /** Runs the motor at the specified voltage. */
+  public void setVoltage(double volts) {
+    if (shouldSend(voltageRequest, volts, 0.0)) {
+      handleStatus(talon.setControl(voltageRequest.withOutput(volts)));
+    }
+  }
+
+  /**
+   * Runs the motor at the specified velocity using closed loop control on the Talon FX.
+   *
+   * @param velocityRotPerSec The rotor velocity setpoint in rotations/sec.
+   * @param ffVolts Feedforward voltage added to the closed loop output.
+   */
+  public void setVelocity(double velocityRotPerSec, double ffVolts) {
+    if (shouldSend(velocityRequest, velocityRotPerSec, ffVolts)) {
+      handleStatus(
+          talon.setControl(
+              velocityRequest.withVelocity(velocityRotPerSec).withFeedForward(ffVolts)));
+    }
+  }
+
+  /**
+   * Runs the motor to the specified position using closed loop control on the Talon FX.
+   *
+   * @param positionRot The rotor position setpoint in rotations.
+   */
+  public void setPosition(double positionRot) {
+    if (shouldSend(positionRequest, positionRot, 0.0)) {
+      handleStatus(talon.setControl(positionRequest.withPosition(positionRot)));
+    }
+  }
+
+  private boolean shouldSend(ControlRequest request, double setpoint, double feedforward) {
+    if (request == lastRequest
+        && Math.abs(setpoint - lastSetpoint) <= tolerance
+        && Math.abs(feedforward - lastFeedforward) <= tolerance) {
+      suppressedCount++;
+      return false;
+    }
+    lastRequest = request;
+    lastSetpoint = setpoint;
+    lastFeedforward = feedforward;
+    sentCount++;
+    return true;
+  }
+
+  private void handleStatus(StatusCode status) {
+    if (!status.isOK()) {
+      lastRequest = null; // Retry on the next call
+    }
+  }
+
+  /** Logs the number of requests sent and suppressed by every output since the last call. */
+  public static void logAll() {
+    for (TalonFXOutput output : outputs) {
+      Logger.recordOutput(output.sentKey, output.sentCount);
+      Logger.recordOutput(output.suppressedKey, output.suppressedCount);
+      output.sentCount = 0;
+      output.suppressedCount = 0;
+    }
+  }
+}
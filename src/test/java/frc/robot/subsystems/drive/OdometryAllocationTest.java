@@ -0,0 +1,140 @@
+// Copyright 2021-2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// version 3 as published by the Free Software Foundation or
+// available in the root directory of this project.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.sun.management.ThreadMXBean;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import java.lang.management.ManagementFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that integrating odometry samples with the same {@link OdometryIntegrator} as Drive does
+ * not allocate once warmed up. The module layout is defined here rather than read from
+ * DriveConstants, which depends on the robot type.
+ */
+class OdometryAllocationTest {
+  private static final Translation2d[] moduleTranslations = {
+    new Translation2d(0.3, 0.3),
+    new Translation2d(0.3, -0.3),
+    new Translation2d(-0.3, 0.3),
+    new Translation2d(-0.3, -0.3)
+  };
+  private static final double samplePeriodSecs = 1.0 / 250.0;
+  private static final int samplesPerCycle = 5;
+
+  private final ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+  private final SwervePoseEstimator estimator =
+      new SwervePoseEstimator(moduleTranslations, new double[] {0.003, 0.003, 0.002}, 750);
+  private final PoseHistory history = new PoseHistory(501);
+
+  // Samples received in one cycle, as the logged inputs would contain them
+  private final double[] sampleTimestamps = new double[samplesPerCycle];
+  private final double[] sampleDrivePositions = new double[samplesPerCycle];
+  private final Rotation2d[] sampleTurnPositions = new Rotation2d[samplesPerCycle];
+  private final int[] sampleDropped = new int[samplesPerCycle];
+  private final Rotation2d[] sampleYawPositions = new Rotation2d[samplesPerCycle];
+  private final OdometryIntegrator integrator =
+      new OdometryIntegrator(
+          new OdometryIntegrator.ModuleSamples[] {
+            new TestModule(), new TestModule(), new TestModule(), new TestModule()
+          },
+          (timestamp, distances, angles, gyroYaw) -> {
+            estimator.update(timestamp, gyroYaw, distances, angles);
+            history.addPose(timestamp, estimator.getX(), estimator.getY(), estimator.getTheta());
+          });
+  private final double[] queriedPose = new double[3];
+  private final double[] queriedVelocity = new double[3];
+  private int cycle = 0;
+
+  @BeforeEach
+  void setup() {
+    assumeTrue(threadBean.isThreadAllocatedMemorySupported(), "Allocation tracking unsupported");
+    threadBean.setThreadAllocatedMemoryEnabled(true);
+    for (int i = 0; i < samplesPerCycle; i++) {
+      sampleTurnPositions[i] = Rotation2d.fromDegrees(15.0 * i);
+      sampleYawPositions[i] = Rotation2d.fromDegrees(3.0 * i);
+    }
+  }
+
+  @Test
+  void integratesWithoutAllocating() {
+    // Warm up so class loading and lazy initialization happen before measuring
+    for (int i = 0; i < 2000; i++) {
+      runCycle();
+    }
+    threadBean.getCurrentThreadAllocatedBytes();
+
+    long allocatedStart = threadBean.getCurrentThreadAllocatedBytes();
+    for (int i = 0; i < 500; i++) {
+      runCycle();
+    }
+    long allocated = threadBean.getCurrentThreadAllocatedBytes() - allocatedStart;
+    assertEquals(0, allocated, "Bytes allocated by 500 cycles of odometry");
+  }
+
+  /** Integrates one cycle of samples, adds a vision measurement and queries the history. */
+  private void runCycle() {
+    double cycleStart = cycle * samplesPerCycle * samplePeriodSecs;
+    for (int i = 0; i < samplesPerCycle; i++) {
+      double timestamp = cycleStart + i * samplePeriodSecs;
+      sampleTimestamps[i] = timestamp;
+      sampleDrivePositions[i] = timestamp * 2.0;
+    }
+    // Occasionally report lost samples, so gaps are filled as well
+    sampleDropped[2] = cycle % 10 == 0 ? 2 : 0;
+    integrator.integrate(sampleTimestamps, sampleYawPositions, true);
+
+    double visionTimestamp = cycleStart - 0.05;
+    estimator.addVisionMeasurement(
+        visionTimestamp,
+        estimator.getX() + 0.1,
+        estimator.getY(),
+        estimator.getTheta(),
+        0.5,
+        0.5,
+        1.0);
+    history.getPoseAt(visionTimestamp, queriedPose);
+    history.getVelocityAt(visionTimestamp, queriedVelocity);
+    cycle++;
+  }
+
+  /** Reads every module's samples from the shared arrays. */
+  private class TestModule implements OdometryIntegrator.ModuleSamples {
+    @Override
+    public double[] getOdometryTimestamps() {
+      return sampleTimestamps;
+    }
+
+    @Override
+    public int[] getOdometryDroppedSamples() {
+      return sampleDropped;
+    }
+
+    @Override
+    public double getOdometryDistanceAt(double timestamp) {
+      return OdometryInterpolation.interpolate(sampleTimestamps, sampleDrivePositions, timestamp);
+    }
+
+    @Override
+    public double getOdometryAngleAt(double timestamp) {
+      return OdometryInterpolation.interpolateAngle(
+          sampleTimestamps, sampleTurnPositions, timestamp);
+    }
+  }
+}
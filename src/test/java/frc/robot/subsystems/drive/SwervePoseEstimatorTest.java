@@ -0,0 +1,163 @@
+// Copyright 2021-2024 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// version 3 as published by the Free Software Foundation or
+// available in the root directory of this project.
+//
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU General Public License for more details.
+
+package frc.robot.subsystems.drive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.VecBuilder;
+import edu.wpi.first.math.estimator.SwerveDrivePoseEstimator;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Replays the same odometry samples and vision measurements through {@link SwervePoseEstimator} and
+ * WPILib's SwerveDrivePoseEstimator, and checks that the estimates agree.
+ */
+class SwervePoseEstimatorTest {
+  private static final Translation2d[] moduleTranslations = {
+    new Translation2d(0.3, 0.3),
+    new Translation2d(0.3, -0.3),
+    new Translation2d(-0.3, 0.3),
+    new Translation2d(-0.3, -0.3)
+  };
+  private static final double[] stateStdDevs = {0.003, 0.003, 0.002};
+  private static final double samplePeriodSecs = 1.0 / 250.0;
+  private static final int samplesPerCycle = 5;
+  private static final double tolerance = 1e-6;
+
+  private final SwervePoseEstimator estimator =
+      new SwervePoseEstimator(moduleTranslations, stateStdDevs, 750);
+  private final SwerveDrivePoseEstimator reference =
+      new SwerveDrivePoseEstimator(
+          new SwerveDriveKinematics(moduleTranslations),
+          new Rotation2d(),
+          positions(new double[4], new double[4]),
+          new Pose2d(),
+          VecBuilder.fill(stateStdDevs[0], stateStdDevs[1], stateStdDevs[2]),
+          VecBuilder.fill(0.9, 0.9, 0.9));
+
+  private final double[] distances = new double[4];
+  private final double[] angles = new double[4];
+  private double gyroAngle = 0.0;
+  private double newestTimestamp = 0.0;
+
+  @Test
+  void matchesWpilibWithPastVision() {
+    run(new Random(6328), false);
+  }
+
+  @Test
+  void matchesWpilibWithVisionNewerThanOdometry() {
+    run(new Random(254), true);
+  }
+
+  /**
+   * Drives along a random path for 10 seconds, adding past vision measurements every cycle and
+   * optionally measurements newer than the newest sample.
+   */
+  private void run(Random random, boolean futureVision) {
+    estimator.resetPosition(0.0, distances, angles, 0.0, 0.0, 0.0);
+    // WPILib records a measurement newer than the odometry as its own entry, which interpolates
+    // differently from the newest sample until the next one, so nothing is measured in between
+    List<double[]> futureWindows = new ArrayList<>();
+
+    for (int cycle = 0; cycle < 500; cycle++) {
+      for (int i = 0; i < samplesPerCycle; i++) {
+        addSample(cycle * samplesPerCycle + i, random);
+      }
+      assertPosesMatch("cycle " + cycle);
+
+      // A measurement from a camera with some latency
+      double latency = 0.02 + random.nextDouble() * 0.3;
+      double timestamp = newestTimestamp - latency;
+      boolean inFutureWindow = false;
+      for (double[] window : futureWindows) {
+        inFutureWindow |= timestamp > window[0] && timestamp < window[1];
+      }
+      if (!inFutureWindow) {
+        addVision(timestamp, random);
+        assertPosesMatch("cycle " + cycle + " after vision at " + timestamp);
+      }
+
+      // A measurement timestamped after the newest odometry sample
+      if (futureVision && cycle % 7 == 3) {
+        timestamp = newestTimestamp + samplePeriodSecs * 0.5;
+        futureWindows.add(new double[] {newestTimestamp, newestTimestamp + samplePeriodSecs});
+        addVision(timestamp, random);
+        assertPosesMatch("cycle " + cycle + " after future vision at " + timestamp);
+        if (cycle % 2 == 1) {
+          // A second measurement from the same frame
+          addVision(timestamp, random);
+          assertPosesMatch("cycle " + cycle + " after repeated future vision");
+        }
+      }
+    }
+  }
+
+  private void addSample(int index, Random random) {
+    double timestamp = index * samplePeriodSecs;
+    for (int i = 0; i < 4; i++) {
+      distances[i] += (1.0 + 0.5 * Math.sin(timestamp + i)) * samplePeriodSecs;
+      angles[i] = MathUtil.angleModulus(0.8 * Math.sin(timestamp * 0.7) + 0.05 * i);
+    }
+    double yawRate = 0.6 * Math.cos(timestamp * 0.3) + 0.01 * random.nextGaussian();
+    gyroAngle += yawRate * samplePeriodSecs;
+
+    estimator.update(timestamp, gyroAngle, distances, angles);
+    reference.updateWithTime(timestamp, new Rotation2d(gyroAngle), positions(distances, angles));
+    newestTimestamp = timestamp;
+  }
+
+  private void addVision(double timestamp, Random random) {
+    Pose2d pose = reference.getEstimatedPosition();
+    double x = pose.getX() + random.nextGaussian() * 0.2;
+    double y = pose.getY() + random.nextGaussian() * 0.2;
+    double theta = MathUtil.angleModulus(pose.getRotation().getRadians() + random.nextGaussian());
+    double xyStdDev = 0.1 + random.nextDouble();
+    double thetaStdDev = 0.2 + random.nextDouble();
+
+    estimator.addVisionMeasurement(timestamp, x, y, theta, xyStdDev, xyStdDev, thetaStdDev);
+    reference.addVisionMeasurement(
+        new Pose2d(x, y, new Rotation2d(theta)),
+        timestamp,
+        VecBuilder.fill(xyStdDev, xyStdDev, thetaStdDev));
+  }
+
+  private void assertPosesMatch(String message) {
+    Pose2d expected = reference.getEstimatedPosition();
+    assertEquals(expected.getX(), estimator.getX(), tolerance, "X at " + message);
+    assertEquals(expected.getY(), estimator.getY(), tolerance, "Y at " + message);
+    assertEquals(
+        0.0,
+        MathUtil.angleModulus(estimator.getTheta() - expected.getRotation().getRadians()),
+        tolerance,
+        "Theta at " + message);
+  }
+
+  private static SwerveModulePosition[] positions(double[] distances, double[] angles) {
+    SwerveModulePosition[] positions = new SwerveModulePosition[4];
+    for (int i = 0; i < 4; i++) {
+      positions[i] = new SwerveModulePosition(distances[i], new Rotation2d(angles[i]));
+    }
+    return positions;
+  }
+}
@@ -0,0 +1,49 @@
+// Copyright (c) 2023 FRC 6328
+// http://github.com/Mechanical-Advantage
+//
+// Use of this source code is governed by an MIT-style
+// license that can be found in the LICENSE file at
+// the root directory of this project.
+
+package frc.robot.util;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.ctre.phoenix6.configs.MotorOutputConfigs;
+import com.ctre.phoenix6.configs.TalonFXConfiguration;
+import com.ctre.phoenix6.signals.NeutralModeValue;
+import org.junit.jupiter.api.Test;
+
+class PhoenixConfigsTest {
+  @Test
+  void matchesGainsRoundedByDevice() {
+    var desired = new TalonFXConfiguration();
+    desired.Slot0.kP = 7.0 * 2.0 * Math.PI / 12.8;
+    desired.Slot0.kD = 0.05 * 2.0 * Math.PI / 6.75;
+    var current = new TalonFXConfiguration();
+    current.Slot0.kP = (float) desired.Slot0.kP;
+    current.Slot0.kD = Math.round(desired.Slot0.kD * 1e6) / 1e6;
+    assertTrue(PhoenixConfigs.matches(desired, current));
+  }
+
+  @Test
+  void detectsChangedGain() {
+    var desired = new TalonFXConfiguration();
+    desired.Slot0.kP = 3.4;
+    var current = new TalonFXConfiguration();
+    current.Slot0.kP = 3.5;
+    assertFalse(PhoenixConfigs.matches(desired, current));
+  }
+
+  @Test
+  void detectsChangedNeutralMode() {
+    var desired = new MotorOutputConfigs();
+    desired.NeutralMode = NeutralModeValue.Brake;
+    var current = new MotorOutputConfigs();
+    current.NeutralMode = NeutralModeValue.Coast;
+    assertFalse(PhoenixConfigs.matches(desired, current));
+    current.NeutralMode = NeutralModeValue.Brake;
+    assertTrue(PhoenixConfigs.matches(desired, current));
+  }
+}